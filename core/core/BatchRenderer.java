@@ -0,0 +1,169 @@
+package core;
+
+import java.awt.Dimension;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import vision.ImageDecoder;
+
+/*******************************************************************
+ * BatchRenderer
+ *
+ * Re-renders every page of a document from its own raw image and
+ * writes each processed image as soon as it is done. Pages are
+ * rendered in parallel, as many at once as there are cores, but
+ * never more than fit in the heap budget together: each page
+ * reserves an estimate of the memory its render needs (from the
+ * size in its raw file's header) before it starts.
+ *
+ *******************************************************************/
+
+public class BatchRenderer {
+
+	/**
+	 * Heap bytes per raw pixel a render needs at its peak, taking
+	 * the warped page to be about the size of the raw image. That
+	 * is while a binarized page is turned gray: the raw image, its
+	 * warp (kept by WarpCache while the raw image lives) and the
+	 * filtered copy of the warp, at 3 bytes each, plus the gray
+	 * pixels and the gray image they are copied into, at 1 byte
+	 * each. Pages which aren't binarized stop at the filtered copy
+	 * (9 bytes), and the PNG encoder works a row at a time.
+	 */
+	private static final int BYTES_PER_PIXEL = 11;
+
+	/**
+	 * Memory is reserved in units of this many bytes, so that
+	 * budgets beyond 2GB still fit in a Semaphore.
+	 */
+	private static final int UNIT = 1024;
+
+	/**
+	 * Notified from the render threads as pages finish.
+	 */
+	public interface Listener {
+
+		/**
+		 * Called when a page has been rendered and written.
+		 *
+		 * @param page - the page
+		 * @param done - pages finished so far, including this one
+		 * @param total - pages in the batch
+		 * @param millis - time spent rendering and writing this page
+		 */
+		public void pageRendered(Page page, int done, int total, long millis);
+
+		/**
+		 * Called when a page could not be rendered or written, with
+		 * what went wrong. The rest of the batch goes on.
+		 */
+		public void pageFailed(Page page, int done, int total, Throwable error);
+	}
+
+	private final long _budget;
+	private final int _threads;
+
+	/**
+	 * Constructor
+	 * Uses the share of the heap given by
+	 * Parameters.BATCH_RENDER_HEAP_FRACTION and a thread per core.
+	 */
+	public BatchRenderer() {
+		this((long) (Runtime.getRuntime().maxMemory() * Parameters.BATCH_RENDER_HEAP_FRACTION),
+				Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param budget - bytes the pages being rendered may use together
+	 * @param threads - most pages rendered at once
+	 */
+	public BatchRenderer(long budget, int threads) {
+		_budget = Math.max(UNIT, budget);
+		_threads = Math.max(1, threads);
+	}
+
+	/**
+	 * Renders and writes the processed image of every page in the
+	 * document, returning once all of them are done.
+	 *
+	 * @param document - the document to render
+	 * @param listener - told about each page as it finishes; may be null
+	 * @return the number of pages which failed
+	 * @throws InterruptedException if interrupted while waiting for the pages
+	 */
+	public int render(Document document, final Listener listener) throws InterruptedException {
+		final List<Page> pages = new ArrayList<Page>(document.pages());
+		final int total = pages.size();
+		final int units = (int) Math.min(Integer.MAX_VALUE, _budget / UNIT);
+		final Semaphore memory = new Semaphore(units, true);
+		final AtomicInteger done = new AtomicInteger(0);
+		final AtomicInteger failed = new AtomicInteger(0);
+
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(_threads, Math.max(1, total)), new ThreadFactory() {
+			private final AtomicInteger _count = new AtomicInteger(0);
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "BatchRenderer " + _count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+
+		try {
+			for (final Page page : pages) {
+				// a page bigger than the whole budget still gets rendered, alone
+				final int reserve = (int) Math.min(units, estimateBytes(page) / UNIT + 1);
+
+				// reserving here rather than in the task keeps the queue in page order
+				memory.acquire(reserve);
+				pool.execute(new Runnable() {
+					public void run() {
+						long start = System.currentTimeMillis();
+						try {
+							page.writeProcessedImage();
+							int finished = done.incrementAndGet();
+							if (listener != null) {
+								listener.pageRendered(page, finished, total, System.currentTimeMillis() - start);
+							}
+						} catch (Throwable e) {
+							// including running out of memory: the page's images are garbage now
+							failed.incrementAndGet();
+							int finished = done.incrementAndGet();
+							if (listener != null) {
+								listener.pageFailed(page, finished, total, e);
+							}
+						} finally {
+							memory.release(reserve);
+						}
+					}
+				});
+			}
+		} finally {
+			pool.shutdown();
+		}
+		pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		return failed.get();
+	}
+
+	/**
+	 * Bytes a render of the page is expected to need at its peak.
+	 * Pages whose size can't be read from the header are assumed
+	 * to need the whole budget.
+	 */
+	private long estimateBytes(Page page) {
+		try {
+			Dimension size = ImageDecoder.size(page.raw());
+			return (long) size.width * size.height * BYTES_PER_PIXEL;
+		} catch (IOException e) {
+			return _budget;
+		}
+	}
+}
@@ -10,8 +10,8 @@ import org.dom4j.io.*;
 import search.*;
 import vision.*;
 import export.*;
-import java.awt.image.BufferedImage;
 import java.awt.Point;
+import java.awt.image.BufferedImage;
 import javax.swing.JOptionPane;
 
 /*******************************************************************
@@ -32,6 +32,7 @@ public class CoreManager {
 	private Searcher _searcher;
 	private XMLReader _xmlReader;
 	private List<Document> _allDocuments;
+	private RenderCache _renderCache;
 
 	/**
 	 * Instance variables keeping track of the
@@ -42,6 +43,20 @@ public class CoreManager {
 	private BufferedImage _rawImage;
 	private BufferedImage _processedImage;
 
+	/**
+	 * Downsampled copies of the raw image for edit mode
+	 * previews. Built over _rawImage the first time a preview
+	 * is rendered, and dropped with it on a page switch.
+	 */
+	private ImagePyramid _pyramid;
+
+	/**
+	 * The scale at which the edit panel displays the raw
+	 * image; edit mode previews are rendered from the
+	 * pyramid level matching it.
+	 */
+	private double _editPreviewScale = 1;
+
 	/**
 	 * Constructor
 	 * Sets some instance variables and calls the startup
@@ -55,6 +70,9 @@ public class CoreManager {
 		_exporter = Exporter.Factory.create();
 		_searcher = Searcher.Factory.create();
 		_allDocuments = new LinkedList<Document>();
+		_renderCache = new RenderCache(new File(Parameters.CACHE_DIRECTORY),
+				(long) (Runtime.getRuntime().maxMemory() * Parameters.RENDER_CACHE_HEAP_FRACTION),
+				Parameters.RENDER_CACHE_DISK_BYTES);
 		startup();
 	}
 
@@ -76,7 +94,23 @@ public class CoreManager {
 		return _workingPage;
 	}
 
+	/**
+	 * Returns the raw image of the working page. The image is
+	 * read from disk the first time it is needed after a page
+	 * switch, since view mode can usually be served from the
+	 * render cache without it.
+	 * 
+	 * @return the raw image, or null if there is no working page
+	 * or it could not be read
+	 */
 	public BufferedImage getRawImage() {
+		if (_rawImage == null && _workingPage != null) {
+			try {
+				_rawImage = _workingPage.getRawImgFromDisk();
+			} catch (IOException e) {
+				System.err.println("Could not read raw image: " + e.getMessage());
+			}
+		}
 		return _rawImage;
 	}
 
@@ -84,6 +118,25 @@ public class CoreManager {
 		return _processedImage;
 	}
 
+	/**
+	 * Returns the image pyramid over the raw image of the
+	 * working page, building it if this is the first preview
+	 * since the page was switched to. Levels of the pyramid are
+	 * only computed when requested.
+	 * 
+	 * @return the ImagePyramid, or null if there is no raw image
+	 */
+	private ImagePyramid getPyramid() {
+		BufferedImage raw = getRawImage();
+		if (raw == null) {
+			return null;
+		}
+		if (_pyramid == null || _pyramid.base() != raw) {
+			_pyramid = new ImagePyramid(raw);
+		}
+		return _pyramid;
+	}
+
 	/**
 	 * Given a document name, scans the list of documents
 	 * for one with a matching name. Returns null if no
@@ -176,6 +229,28 @@ public class CoreManager {
 		_processedImage = img;
 	}
 
+	/**
+	 * Called by the edit panel with the factor by which it scales
+	 * the raw image for display. Edit mode previews are rendered
+	 * at the nearest resolution that is at least this large, so
+	 * if that is a different pyramid level than before, the
+	 * preview is rendered again from the new level.
+	 * 
+	 * @param scale - the display scale of the raw image
+	 * @return true if the processed image was re-rendered
+	 */
+	public boolean setEditPreviewScale(double scale) {
+		ImagePyramid pyramid = getPyramid();
+		boolean changed = pyramid != null
+				&& pyramid.levelForScale(scale) != pyramid.levelForScale(_editPreviewScale);
+		_editPreviewScale = scale;
+
+		if (changed) {
+			updateProcessedImageWithRawDimensions();
+		}
+		return changed;
+	}
+
 	/**
 	 * Sets the working page by parsing the XML on disk.
 	 * 
@@ -214,7 +289,8 @@ public class CoreManager {
 		}
 
 		_workingPage = page;
-		_rawImage = page.getRawImgFromDisk();
+		_rawImage = null;
+		_pyramid = null;
 
 		if (Parameters.isInEditMode())
 			this.updateProcessedImageWithRawDimensions();
@@ -462,6 +538,7 @@ public class CoreManager {
 					_workingDocument = null;
 					_workingPage = null;
 					_rawImage = null;
+					_pyramid = null;
 					_processedImage = null;
 				}
 			}
@@ -855,6 +932,8 @@ public class CoreManager {
 
 	/**
 	 * Exports a document by copying the images out to a new folder.
+	 * Every page is first re-rendered from its own raw image, several
+	 * at once (see BatchRenderer).
 	 * 
 	 * @param document - the Document to copy
 	 * @param outdirectory - a String giving the directory to copy to
@@ -863,11 +942,21 @@ public class CoreManager {
 	 */
 	public void exportImages(Document document, String outdirectory) throws IOException {
 
-		for (Page page : document.pages()) {
-			//TODO
-			_processedImage = VisionManager.rerenderImage(getRawImage(), page.corners(), page.config());
-			page.writeProcessedImage();
+		int failed;
+		try {
+			failed = new BatchRenderer().render(document, new BatchRenderer.Listener() {
+				public void pageRendered(Page page, int done, int total, long millis) {
+					// only failures are worth reporting
+				}
+				public void pageFailed(Page page, int done, int total, Throwable error) {
+					System.err.println("Could not render " + page.name() + " (" + done + "/" + total + "): " + error);
+				}
+			});
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Aborted export: interrupted while rendering!");
 		}
+		if (failed > 0) throw new IOException("Aborted export: could not render " + failed + " page(s)!");
 
 		_exporter.exportImages(document, outdirectory);
 	}
@@ -910,25 +999,38 @@ public class CoreManager {
 	 */
 	public void updateProcessedImage() {
 		Page curr = getWorkingPage();
+		if (curr == null) return;
+
+		String key = RenderCache.key(curr.raw(), curr.corners(), curr.config());
+		BufferedImage cached = _renderCache.get(key);
+		if (cached != null) {
+			curr.ocrNeedsRevision();
+			_processedImage = cached;
+			return;
+		}
+
 		BufferedImage img = getRawImage();
-		if (curr != null && img != null) {
-			getWorkingPage().ocrNeedsRevision();
-			_processedImage = VisionManager.rerenderImage(getRawImage(), curr.corners(), curr.config());
+		if (img != null) {
+			curr.ocrNeedsRevision();
+			_processedImage = VisionManager.rerenderImage(img, curr.corners(), curr.config());
+			_renderCache.put(key, _processedImage);
 		}
 	}
 
+	/**
+	 * Renders the edit mode preview: the whole raw image (no
+	 * perspective correction) with the page's global transforms
+	 * applied. The preview comes from the pyramid level matching
+	 * the edit panel's scale, so it is usually much smaller than
+	 * the raw image; full resolution is only rendered by
+	 * updateProcessedImage() and export.
+	 */
 	public void updateProcessedImageWithRawDimensions() {
 		Page curr = getWorkingPage();
-		BufferedImage img = getRawImage();
-		if (curr != null && img != null) {
-
-			Corners originalCorners = new Corners(new Point(0, 0), 
-					new Point(getRawImage().getWidth(), 0), 
-					new Point(0, getRawImage().getHeight()), 
-					new Point(getRawImage().getWidth(), getRawImage().getHeight()));
-
-			//			_processedImage = VisionManager.rerenderImage(getRawImage(), VisionManager.findCorners(getRawImage()), curr.config());
-			_processedImage = VisionManager.rerenderImage(getRawImage(), originalCorners, curr.config());
+		ImagePyramid pyramid = getPyramid();
+		if (curr != null && pyramid != null) {
+			BufferedImage preview = pyramid.forScale(_editPreviewScale);
+			_processedImage = VisionManager.imageGlobalTransforms(preview, curr.config());
 		}
 	}
 
@@ -957,6 +1059,46 @@ public class CoreManager {
 		}
 	}
 
+	/**
+	 * Turns the working page clockwise by the given angle on
+	 * top of its current rotation (the one estimated on import,
+	 * to begin with). Negative angles turn it anticlockwise.
+	 * 
+	 * @param degrees - the angle to turn by, usually 90 or -90
+	 */
+	public void rotateImage(double degrees) {
+		double rotation = (getRotation() + degrees) % 360;
+		if (rotation > 180) rotation -= 360;
+		if (rotation <= -180) rotation += 360;
+		setRotation(rotation);
+	}
+
+	/**
+	 * Undoes the rotation of the working page, including any
+	 * turn or skew estimated on import.
+	 */
+	public void resetRotation() {
+		setRotation(0);
+	}
+
+	/**
+	 * The rotation of the working page, in degrees clockwise.
+	 * 
+	 * @return the rotation, or 0 if the page has none
+	 */
+	public double getRotation() {
+		ConfigurationValue configVal = this.getWorkingPage().config().getKey(ConfigurationValue.ValueType.Rotation);
+		return (configVal == null)? 0 : (Double) configVal.value();
+	}
+
+	private void setRotation(double rotation) {
+		try {
+			this.getWorkingPage().config().setKey(new ConfigurationValue(ConfigurationValue.ValueType.Rotation, rotation));
+		} catch (InvalidTypingException e) {
+			e.printStackTrace();
+		}
+	}
+
 	/**
 	 * Given a temperature (centered around 0, e.g. -50 to 50), adjust the image.
 	 * 
@@ -972,6 +1114,44 @@ public class CoreManager {
 		}
 	}
 
+	/**
+	 * The temperature of the working page (see changeTemperature), as
+	 * estimated on import or last set.
+	 * 
+	 * @return the temperature, or 0 if the page has none
+	 */
+	public int getTemperature() {
+		ConfigurationValue configVal = this.getWorkingPage().config().getKey(ConfigurationValue.ValueType.ColorTemperature);
+		return (configVal == null)? 0 : (Integer) configVal.value();
+	}
+
+	/**
+	 * Whether the working page has its contrast boosted.
+	 * 
+	 * @return true if contrast boost is on
+	 */
+	public boolean isContrastBoosted() {
+		ConfigurationValue configVal = this.getWorkingPage().config().getKey(ConfigurationValue.ValueType.ContrastBoost);
+		return configVal != null && (Boolean) configVal.value();
+	}
+
+	/**
+	 * Snap a point the user placed on the raw image of the working
+	 * page to the actual corner closest to it.
+	 * 
+	 * @param point - the point, in raw image coordinates
+	 * @param radius - how far from the point to look, in raw image pixels
+	 * @return the snapped point, or the given one if there is no raw
+	 * image or no corner close to it
+	 */
+	public Point snapCorner(Point point, int radius) {
+		BufferedImage raw = getRawImage();
+		if (raw == null) {
+			return point;
+		}
+		return VisionManager.snapCorner(raw, point, radius);
+	}
+
 	public void boostConstrast() {
 		ConfigurationValue configVal = this.getWorkingPage().config().getKey(ConfigurationValue.ValueType.ContrastBoost);
 
@@ -1073,8 +1253,6 @@ public class CoreManager {
 	 * Called every time entering Edit Mode or Configuration Dictionary is changed
 	 */
 	public void getEditImageTransform() {
-		_processedImage = VisionManager.imageGlobalTransforms(_rawImage,
-				Parameters.getCoreManager().getWorkingPage().config());
 		this.updateProcessedImageWithRawDimensions();
 	}
 
@@ -1,5 +1,6 @@
 package core;
 
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.io.*;
 import java.util.*;
@@ -9,7 +10,11 @@ import ocr.ocrManager;
 import org.dom4j.*;
 import org.dom4j.io.*;
 import search.*;
+import vision.BitonalImage;
 import vision.ConfigurationDictionary;
+import vision.ConfigurationValue;
+import vision.LayoutAnalyzer;
+import vision.PixelFormat;
 import vision.VisionManager;
 
 /*******************************************************************
@@ -35,6 +40,10 @@ public class Page implements Comparable{
 	// used for searching the text of the page
 	private static final int GREP_WINDOW = 10;
 
+	// pages with less than this share of their pixels
+	// black on the OCR image are blank, and not OCRed
+	private static final double BLANK_INK_SHARE = 0.0002;
+
 	// major attributes
 	private PageText _text;
 	private ConfigurationDictionary _config;
@@ -58,6 +67,14 @@ public class Page implements Comparable{
 	// whether the text found by OCR is
 	// based on the current processed image
 	private boolean _ocrUpToDate;
+	
+	// the text blocks of the processed image in reading
+	// order, found when the OCR image was last written;
+	// null until then, and not serialized
+	private List<Rectangle> _textBlocks;
+
+	// whether the OCR image was blank when last written
+	private boolean _blank;
 
 	/*******************************************************************
 	 * 
@@ -194,12 +211,14 @@ public class Page implements Comparable{
 	 */
 	public void initGuesses() throws IOException {
 
-		// read a buffered image from the disk
-		BufferedImage buff = VisionManager.loadImage(raw());
+		// read a small, subsampled copy of the image from the disk
+		BufferedImage thumbnail = VisionManager.loadImage(raw(), VisionManager.CORNER_DECODE_SIDE);
 
-		// guess and set corners and configuration values of Page
-		setCorners(VisionManager.findCorners(buff));
-		setConfig(VisionManager.estimateConfigurationValues(buff));
+		// guess and set corners and configuration values of Page;
+		// corners are refined on full resolution regions of the raw file,
+		// and the rotation is guessed from the page they enclose
+		setCorners(VisionManager.findCorners(raw(), thumbnail));
+		setConfig(VisionManager.estimateConfigurationValues(raw(), thumbnail, corners()));
 	}
 
 	/**
@@ -245,30 +264,120 @@ public class Page implements Comparable{
 	/**
 	 * Writes the processed image as a TIFF file. This is necessary
 	 * in order for the image to be compatible with Tesseract,
-	 * and is therefore used by the OCR manager.
+	 * and is therefore used by the OCR manager. Tesseract only
+	 * looks at gray levels, so the TIFF is 8 bit gray, or 1 bit
+	 * Group 4 compressed when the page is binarized anyway.
+	 * Also finds the page's text blocks (see textBlocks()).
 	 * 
 	 * @throws IOException
 	 */
 	public void writeProcessedImageTIFF() throws IOException {
-		BufferedImage rerendered = VisionManager.rerenderImage(getRawImgFromDisk(), this.corners(), this.config());
+		BufferedImage raw = getRawImgFromDisk();
+		
+		// render once; the layout analysis of an unbinarized
+		// page thresholds the gray image that is written
+		ConfigurationValue binarize = config().getKey(ConfigurationValue.ValueType.Binarize);
+		BitonalImage bitonal;
+		BufferedImage rerendered;
+		if (binarize != null && (Boolean) binarize.value()) {
+			bitonal = VisionManager.rerenderBitonal(raw, this.corners(), this.config());
+			rerendered = bitonal.toImage();
+		} else {
+			rerendered = VisionManager.rerenderImage(raw, this.corners(), this.config(), PixelFormat.GRAY);
+			bitonal = VisionManager.toBitonal(rerendered);
+		}
+		
+		List<Rectangle> blocks = LayoutAnalyzer.blocks(bitonal);
+		boolean blank = bitonal.blackPixels() < BLANK_INK_SHARE * bitonal.width() * bitonal.height();
+		synchronized (this) {
+			_textBlocks = blocks;
+			_blank = blank;
+		}
 		VisionManager.writeTIFF(rerendered, processed());
 	}
+	
+	/**
+	 * The blocks of text on the processed image, in reading
+	 * order and in its pixels (see LayoutAnalyzer), as of the
+	 * last writeProcessedImageTIFF(); null before that.
+	 */
+	public synchronized List<Rectangle> textBlocks() {
+		return _textBlocks;
+	}
 
 	/**
 	 * Performs OCR on this page object, and sets the result
-	 * as its PageText object.
+	 * as its PageText object. Blank pages get an empty
+	 * PageText without running Tesseract; on the others the
+	 * words are put in the reading order of the page's text
+	 * blocks (see inReadingOrder).
 	 * 
 	 * @throws IOException
 	 */
 	public void setOcrResults() throws IOException {
 		String[] fields = metafile().split(SystemConfiguration.PATH_REGEX);
-		PageText text = ocrManager.getPageText(_processed, fields[fields.length-1]);
+		List<Rectangle> blocks;
+		boolean blank;
+		synchronized (this) {
+			blocks = _textBlocks;
+			blank = _blank;
+		}
+		PageText text = (blocks != null && blank) ? new PageText()
+				: inReadingOrder(ocrManager.getPageText(_processed, fields[fields.length-1]), blocks);
 		synchronized (this) {
 			_text = text;
 			serialize();
 		}
 	}
 
+	/**
+	 * Reorders the words found by OCR by the text block their
+	 * centre falls in, keeping Tesseract's order within a block.
+	 * Words outside every block (a headline too big to be taken
+	 * for text, say) follow the blocks, so none are lost. The
+	 * full text is rebuilt in the same order when every word of
+	 * it has a position.
+	 * 
+	 * @param text - the text found by OCR
+	 * @param blocks - the text blocks in reading order, or null
+	 * @return the reordered text
+	 */
+	private static PageText inReadingOrder(PageText text, List<Rectangle> blocks) {
+		if (blocks == null || blocks.isEmpty()) {
+			return text;
+		}
+
+		List<List<Position>> byBlock = new ArrayList<List<Position>>();
+		for (int i = 0; i <= blocks.size(); i++) {
+			byBlock.add(new ArrayList<Position>());
+		}
+		for (Position p : text.positions()) {
+			int cx = (p.xmin() + p.xmax()) / 2;
+			int cy = (p.ymin() + p.ymax()) / 2;
+			int block = blocks.size();
+			for (int i = 0; i < blocks.size(); i++) {
+				if (blocks.get(i).contains(cx, cy)) {
+					block = i;
+					break;
+				}
+			}
+			byBlock.get(block).add(p);
+		}
+
+		PageText ordered = new PageText(text.fullText());
+		StringBuilder fullText = new StringBuilder();
+		for (List<Position> words : byBlock) {
+			for (Position p : words) {
+				ordered.addPosition(p);
+				fullText.append(p.word()).append(' ');
+			}
+		}
+		if (text.fullText().trim().split("\\s+").length == text.positions().size()) {
+			ordered.setFullText(fullText.toString().trim());
+		}
+		return ordered;
+	}
+
 	/**
 	 * Launches a thread which calls setOcrResults in order
 	 * to update the OCR text.
@@ -70,6 +70,28 @@ public class Parameters {
 	 */
 	public static final String DOC_DIRECTORY = "workspace" + File.separator + "docs";
 	
+	/**
+	 * path of the cache of rendered page images
+	 */
+	public static final String CACHE_DIRECTORY = "workspace" + File.separator + "cache";
+	
+	/**
+	 * Fraction of the maximum heap which rendered pages may
+	 * occupy in the in-memory render cache
+	 */
+	public static final double RENDER_CACHE_HEAP_FRACTION = 0.25;
+	
+	/**
+	 * Max number of bytes of rendered pages to keep on disk
+	 */
+	public static final long RENDER_CACHE_DISK_BYTES = 2L * 1024 * 1024 * 1024;
+	
+	/**
+	 * Fraction of the maximum heap which the pages being
+	 * rendered by a batch render may occupy at once
+	 */
+	public static final double BATCH_RENDER_HEAP_FRACTION = 0.5;
+	
 	/**
 	 * Max number of search hits to report in the working document
 	 */
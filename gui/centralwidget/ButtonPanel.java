@@ -14,6 +14,8 @@ import javax.swing.SwingConstants;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
 
+import core.CoreManager;
+import core.Page;
 import core.Parameters;
 
 /**
@@ -61,6 +63,12 @@ public class ButtonPanel extends JPanel {
 	 */
 	private JButton contrastButton;
 	
+	/**
+	 * The button which undoes the rotation; it also
+	 * shows the current one.
+	 */
+	private JButton resetRotationButton;
+	
 	/**
 	 * Reference to the central panel.
 	 */
@@ -71,6 +79,17 @@ public class ButtonPanel extends JPanel {
 	 */
 	private JSlider temperatureSlider;
 	
+	/**
+	 * The page the controls were last set from.
+	 */
+	private Page shownPage;
+	
+	/**
+	 * True while the controls are being set from a page, so
+	 * that their listeners don't write the values back.
+	 */
+	private boolean showingPage;
+	
 	/****************************************
 	 * 
 	 * Constructor(s)
@@ -82,7 +101,7 @@ public class ButtonPanel extends JPanel {
 	 */
 	public ButtonPanel(EditPanel editPanel, CentralPanel centralPanel) {
 		super();
-		this.setLayout(new GridLayout(2,4));
+		this.setLayout(new GridLayout(2,5));
 		
 		this.editPanel = editPanel;
 		this.centralPanel = centralPanel;
@@ -110,9 +129,16 @@ public class ButtonPanel extends JPanel {
 		flipVertically.addActionListener(new FlipVerticallyListener());
 		this.controls.add(flipVertically);
 		
-		JLabel emptyLabel = new JLabel("");
-		this.add(emptyLabel);
-		this.controls.add(emptyLabel);
+		JButton rotateLeft = new JButton("Rotate Left");
+		this.add(rotateLeft);
+		rotateLeft.addActionListener(new RotateListener(-90));
+		this.controls.add(rotateLeft);
+		
+		this.resetRotationButton = new JButton();
+		this.add(this.resetRotationButton);
+		this.resetRotationButton.addActionListener(new ResetRotationListener());
+		this.controls.add(this.resetRotationButton);
+		this.showRotation(0);
 		
 		this.contrastButton = new JButton("Boost Contrast");
 		this.add(this.contrastButton);
@@ -127,6 +153,11 @@ public class ButtonPanel extends JPanel {
 		this.temperatureSlider.addChangeListener(new TempListener());
 		this.add(this.temperatureSlider);
 		this.controls.add(this.temperatureSlider);
+		
+		JButton rotateRight = new JButton("Rotate Right");
+		this.add(rotateRight);
+		rotateRight.addActionListener(new RotateListener(90));
+		this.controls.add(rotateRight);
 	}
 	
 	/****************************************
@@ -147,6 +178,56 @@ public class ButtonPanel extends JPanel {
 		}
 	}
 	
+	/**
+	 * Sets the controls from the configuration of the working
+	 * page, so that they start from the values estimated on
+	 * import. Does nothing if the working page hasn't changed
+	 * since the last call.
+	 */
+	public void showWorkingPage() {
+		CoreManager cm = Parameters.getCoreManager();
+		Page page = cm.getWorkingPage();
+		if (page == null || page == this.shownPage) {
+			return;
+		}
+		this.shownPage = page;
+		
+		this.showingPage = true;
+		this.temperatureSlider.setValue(cm.getTemperature());
+		this.showingPage = false;
+		this.showContrast(cm.isContrastBoosted());
+		this.showRotation(cm.getRotation());
+	}
+	
+	/****************************************
+	 * 
+	 * Private Methods
+	 * 
+	 ****************************************/
+	
+	/**
+	 * Labels the contrast button with what pressing it will do.
+	 * 
+	 * @param boosted True if the page's contrast is boosted
+	 */
+	private void showContrast(boolean boosted) {
+		if (boosted) {
+			this.contrastButton.setText("Reduce Contrast");
+		} else { 
+			this.contrastButton.setText("Boost Contrast");
+		}
+	}
+	
+	/**
+	 * Shows the rotation on the reset button, so that a
+	 * turn estimated on import can be seen in edit mode.
+	 * 
+	 * @param rotation The rotation in degrees clockwise
+	 */
+	private void showRotation(double rotation) {
+		this.resetRotationButton.setText(String.format("Reset Rotation (%.1f\u00b0)", rotation));
+	}
+	
 	/****************************************
 	 * 
 	 * Event Listeners
@@ -228,21 +309,44 @@ public class ButtonPanel extends JPanel {
 		}
 	}
 	
-	private class ContrastListener implements ActionListener {
+	/**
+	 * Listener for the Rotate Left and Rotate Right buttons.
+	 */
+	private class RotateListener implements ActionListener {
 
-		private boolean boostContrast = false;
+		private double degrees;
 		
+		public RotateListener(double degrees) {
+			this.degrees = degrees;
+		}
+		
+		public void actionPerformed(ActionEvent e) {
+			Parameters.getCoreManager().rotateImage(this.degrees);
+			showRotation(Parameters.getCoreManager().getRotation());
+			Parameters.getCoreManager().getEditImageTransform();
+			centralPanel.updatePanels(false);
+		}
+	}
+	
+	/**
+	 * Listener for the Reset Rotation button.
+	 */
+	private class ResetRotationListener implements ActionListener {
+
+		public void actionPerformed(ActionEvent e) {
+			Parameters.getCoreManager().resetRotation();
+			showRotation(0);
+			Parameters.getCoreManager().getEditImageTransform();
+			centralPanel.updatePanels(false);
+		}
+	}
+	
+	private class ContrastListener implements ActionListener {
+
 		public void actionPerformed(ActionEvent arg0) {
-			
-			this.boostContrast = !this.boostContrast;
-			
-			if (this.boostContrast) {
-				contrastButton.setText("Reduce Contrast");
-			} else { 
-				contrastButton.setText("Boost Contrast");
-			}	
 
 			Parameters.getCoreManager().boostConstrast();
+			showContrast(Parameters.getCoreManager().isContrastBoosted());
 			Parameters.getCoreManager().getEditImageTransform();
 			centralPanel.updatePanels(false);
 		}
@@ -255,6 +359,9 @@ public class ButtonPanel extends JPanel {
 	private class TempListener implements ChangeListener {
 
 		public void stateChanged(ChangeEvent arg0) {
+			if (showingPage) {
+				return;
+			}
 			TempChangeThread t = new TempChangeThread();
 			t.start();
 		}
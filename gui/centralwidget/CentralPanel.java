@@ -216,6 +216,7 @@ public class CentralPanel extends JPanel {
 
 		this.add(this.editPanel, BorderLayout.CENTER);
 		this.editPanel.setVisible(true);
+		this.buttonPanel.showWorkingPage();
 		this.buttonPanel.setComponentsVisible(true);
                 //this.toolbarPanel.hideZoomButtons();
 		
@@ -249,9 +250,11 @@ public class CentralPanel extends JPanel {
 	/**
 	 * Calls repaint() on the search, view and
 	 * edit panels to draw the image once
-	 * a new current image has been selected.
+	 * a new current image has been selected,
+	 * and sets the edit controls from its page.
 	 */
 	public void updatePanels(boolean updateSearchPanel) {
+		this.buttonPanel.showWorkingPage();
 		this.viewPanel.repaint();
 		this.editPanel.updateCornersOnPanel();
 		this.editPanel.repaint();
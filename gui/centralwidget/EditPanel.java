@@ -45,6 +45,12 @@ public class EditPanel extends JPanel implements MouseMotionListener, MouseWheel
 	 */
 	private static int ELLIPSE_RADIUS = 20;
 
+	/**
+	 * How far (in screen pixels) from where a dragged corner
+	 * is dropped to look for a corner in the image to snap to.
+	 */
+	private static final int SNAP_DISTANCE = 12;
+
 	/****************************************
 	 * 
 	 * Private Instance Variables
@@ -202,6 +208,7 @@ public class EditPanel extends JPanel implements MouseMotionListener, MouseWheel
 	 */
 	public void zoomIn() {
 		this.scaleFactor += 0.2;
+		this.updatePreviewScale();
 		this.repaint();
 	}
 
@@ -211,6 +218,7 @@ public class EditPanel extends JPanel implements MouseMotionListener, MouseWheel
 	public void zoomOut() {
 		if (this.scaleFactor > 0.2)
 			this.scaleFactor -= 0.2;
+		this.updatePreviewScale();
 		this.repaint();
 	}
 
@@ -272,8 +280,8 @@ public class EditPanel extends JPanel implements MouseMotionListener, MouseWheel
 			// set the initial corners when we change images
 			updateCornersOnPanel();
 			
-			double xSideRatio = ((double) this.getWidth())/((double) this.img.getWidth());
-			double ySideRatio = ((double) this.getHeight())/((double) this.img.getHeight());
+			double xSideRatio = ((double) this.getWidth())/((double) this.imageWidth());
+			double ySideRatio = ((double) this.getHeight())/((double) this.imageHeight());
 
 			if (ySideRatio > xSideRatio)
 				this.scaleFactor = xSideRatio;
@@ -281,16 +289,17 @@ public class EditPanel extends JPanel implements MouseMotionListener, MouseWheel
 				this.scaleFactor = ySideRatio;
 
 			this.scaleFactor *= 0.95;
+			this.updatePreviewScale();
 		}
 
 		// scale the image and display it, centered on the screen
 		if (this.img != null) {
 			
-			int newW = (int) (this.img.getWidth() * this.scaleFactor);
-			int newH = (int) (this.img.getHeight() * this.scaleFactor);
+			int newW = (int) (this.imageWidth() * this.scaleFactor);
+			int newH = (int) (this.imageHeight() * this.scaleFactor);
 
-			double cornerX = (this.getWidth() - this.img.getWidth()) / 2;
-			double cornerY = (this.getHeight() - this.img.getHeight()) / 2;
+			double cornerX = (this.getWidth() - this.imageWidth()) / 2;
+			double cornerY = (this.getHeight() - this.imageHeight()) / 2;
 
 			double newX = this.scaleFactor * (cornerX - this.getWidth()/2 + transImage.dx + transCanvas.dx) + this.getWidth()/2 ;
 			double newY = this.scaleFactor * (cornerY - this.getHeight()/2 + transImage.dy + transCanvas.dy) + this.getHeight()/2;
@@ -322,6 +331,37 @@ public class EditPanel extends JPanel implements MouseMotionListener, MouseWheel
 	 ****************************************/
 
 	
+	/**
+	 * The width of the page image in raw image coordinates, which
+	 * is what the corners are expressed in. The image being drawn
+	 * may be a downsampled preview of the raw image.
+	 */
+	private int imageWidth() {
+		BufferedImage raw = Parameters.getCoreManager().getRawImage();
+		return (raw != null) ? raw.getWidth() : this.img.getWidth();
+	}
+
+	/**
+	 * The height of the page image in raw image coordinates.
+	 */
+	private int imageHeight() {
+		BufferedImage raw = Parameters.getCoreManager().getRawImage();
+		return (raw != null) ? raw.getHeight() : this.img.getHeight();
+	}
+
+	/**
+	 * Tells the CoreManager the scale the image is now displayed
+	 * at. If that re-renders the preview from a different pyramid
+	 * level, the new preview is taken on without resetting the
+	 * zoom, as a new working image would.
+	 */
+	private void updatePreviewScale() {
+		CoreManager cm = Parameters.getCoreManager();
+		if (cm.setEditPreviewScale(this.scaleFactor)) {
+			this.img = cm.getProcessedImage();
+		}
+	}
+
 	private void paintStandardMode(Graphics2D brush) {
 
 		Page wp = Parameters.getCoreManager().getWorkingPage();
@@ -391,8 +431,8 @@ public class EditPanel extends JPanel implements MouseMotionListener, MouseWheel
 	protected void scaleAndTranslate(Point corner, PointTransform pointTransform,
 			PointTransform canvasTransform, Ellipse2D drawable) {
 		
-		double marginX = (this.getWidth() - this.img.getWidth()) / 2;
-		double marginY = (this.getHeight() - this.img.getHeight()) / 2;
+		double marginX = (this.getWidth() - this.imageWidth()) / 2;
+		double marginY = (this.getHeight() - this.imageHeight()) / 2;
 		double cornerX = corner.x + marginX;
 		double cornerY = corner.y + marginY;
 		double x = this.scaleFactor * (cornerX - this.getWidth()/2 + pointTransform.dx + canvasTransform.dx) + this.getWidth()/2 ;
@@ -491,8 +531,8 @@ public class EditPanel extends JPanel implements MouseMotionListener, MouseWheel
 	protected boolean isWithinImage(double mX, double mY) {
 		int imgX = this.imgPosition.x;
 		int imgY = this.imgPosition.y;
-		return (mX > imgX && mX < (imgX + this.img.getWidth() * this.scaleFactor) &&
-				mY > imgY && mY < (imgY + this.img.getHeight() * this.scaleFactor));
+		return (mX > imgX && mX < (imgX + this.imageWidth() * this.scaleFactor) &&
+				mY > imgY && mY < (imgY + this.imageHeight() * this.scaleFactor));
 	}
 
 	/****************************************
@@ -559,6 +599,7 @@ public class EditPanel extends JPanel implements MouseMotionListener, MouseWheel
 		} else {
 			this.scaleFactor += 0.2;
 		}
+		this.updatePreviewScale();
 
 		this.repaint();
 	}
@@ -641,6 +682,13 @@ public class EditPanel extends JPanel implements MouseMotionListener, MouseWheel
 	public void mouseReleased(MouseEvent e) {
 		this.setCursor(Cursor.getDefaultCursor());
 
+		if (this.mode == EditPanelMode.STANDARD) {
+			if (this.transUL.dragging) this.snapDraggedCorner(this.cornerUL, this.transUL);
+			else if (this.transUR.dragging) this.snapDraggedCorner(this.cornerUR, this.transUR);
+			else if (this.transDL.dragging) this.snapDraggedCorner(this.cornerDL, this.transDL);
+			else if (this.transDR.dragging) this.snapDraggedCorner(this.cornerDR, this.transDR);
+		}
+
 		this.transUR.dragging = false;
 		this.transUL.dragging = false;
 		this.transDR.dragging = false;
@@ -654,6 +702,24 @@ public class EditPanel extends JPanel implements MouseMotionListener, MouseWheel
 		this.repaint();
 	}
 
+	/**
+	 * Move a corner the user has just dropped onto the closest
+	 * corner in the raw image, looking as far as SNAP_DISTANCE
+	 * screen pixels away.
+	 * 
+	 * @param corner - the initial location of the corner
+	 * @param point - the PointTransform the user has dragged it by
+	 */
+	private void snapDraggedCorner(Point corner, PointTransform point) {
+		Point dropped = new Point((int) (corner.x+point.dx-transImage.dx),
+				(int) (corner.y+point.dy-transImage.dy));
+		int radius = (int) Math.ceil(SNAP_DISTANCE / this.scaleFactor);
+		Point snapped = Parameters.getCoreManager().snapCorner(dropped, radius);
+
+		point.dx += snapped.x - dropped.x;
+		point.dy += snapped.y - dropped.y;
+	}
+
 	/**
 	 * Un-implemented mouse listener methods
 	 */
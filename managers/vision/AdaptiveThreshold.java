@@ -0,0 +1,121 @@
+package vision;
+
+/*
+ * Sauvola binarization: a pixel goes black when it's darker than
+ *
+ *   T = mean * (1 + k*(deviation/R - 1))
+ *
+ * where mean and deviation are taken over the (2*radius+1) square around it. The threshold
+ * follows the paper's local brightness, so shadows and uneven phone lighting don't swallow the
+ * text the way a global threshold does; k pulls it below the mean where there's little
+ * contrast, so plain paper stays white.
+ *
+ * Means and variances come from integral images of the gray levels and their squares, so each
+ * pixel costs the same whatever the window size. They are built per tile (with a border of
+ * radius around it), which keeps them a few MB however large the page is.
+ */
+public class AdaptiveThreshold {
+
+	/*
+	 * Sensitivity, and the dynamic range of the deviation (for 8 bit gray levels).
+	 */
+	public static final double K = 0.34;
+	private static final double R = 128;
+
+	/*
+	 * Tiles are this size before adding the window border.
+	 */
+	private static final int TILE_SIZE = 512;
+
+	/*
+	 * Largest radius whose window sum of squared gray levels still fits in an int.
+	 */
+	public static final int MAX_RADIUS = 90;
+
+	/*
+	 * Window radius for a page of the given size: about a line of body text on a full page
+	 * photo, never less than a small window.
+	 */
+	public static int radius(int width, int height){
+		return Math.max(7, Math.min(MAX_RADIUS, Math.max(width, height)/100));
+	}
+
+	/*
+	 * Binarize a 3 channel image in place, judging each pixel by its luma.
+	 */
+	public static void binarize(final byte[] data, final int width, int height, final int stride){
+		byte[] gray = PixelKernels.gray(data, width, height, stride);
+		final byte[] bits = threshold(gray, width, height, radius(width, height), K);
+
+		ParallelRaster.forEachStrip(height, ParallelRaster.STRIP_ROWS, new ParallelRaster.StripKernel(){
+			public void run(int y0, int y1){
+				for(int y=y0;y<y1;y++){
+					int o = y*stride;
+					int end = y*width + width;
+					for(int i=y*width;i<end;i++, o+=3){
+						data[o] = bits[i];
+						data[o+1] = bits[i];
+						data[o+2] = bits[i];
+					}
+				}
+			}
+		});
+	}
+
+	/*
+	 * Threshold a row-major gray image (no row padding). Returns a new image of the same size
+	 * which is 0 where gray was dark for its neighbourhood and 255 elsewhere.
+	 */
+	public static byte[] threshold(final byte[] gray, final int width, final int height, int windowRadius, final double k){
+		final int radius = Math.max(1, Math.min(windowRadius, MAX_RADIUS));
+		final byte[] out = new byte[width*height];
+
+		ParallelRaster.forEachTile(width, height, TILE_SIZE, new ParallelRaster.TileKernel(){
+			public void run(int x0, int y0, int x1, int y1){
+				//integrals over the tile and its border
+				int bx0 = Math.max(0, x0-radius), by0 = Math.max(0, y0-radius);
+				int bx1 = Math.min(width, x1+radius), by1 = Math.min(height, y1+radius);
+				int iw = bx1-bx0+1;
+				int ih = by1-by0+1;
+
+				/*
+				 * ints are allowed to wrap: every window sum is below 2^31, and the wrapped
+				 * differences of the corners of a window are still exact.
+				 */
+				int[] sum = new int[iw*ih];
+				int[] squares = new int[iw*ih];
+				for(int y=by0;y<by1;y++){
+					int rowSum = 0, rowSquares = 0;
+					int above = (y-by0)*iw;
+					int here = above + iw;
+					for(int x=bx0;x<bx1;x++){
+						int v = gray[y*width + x]&0xff;
+						rowSum += v;
+						rowSquares += v*v;
+						int i = x-bx0+1;
+						sum[here + i] = sum[above + i] + rowSum;
+						squares[here + i] = squares[above + i] + rowSquares;
+					}
+				}
+
+				for(int y=y0;y<y1;y++){
+					int wy0 = Math.max(by0, y-radius) - by0;
+					int wy1 = Math.min(by1, y+radius+1) - by0;
+					for(int x=x0;x<x1;x++){
+						int wx0 = Math.max(bx0, x-radius) - bx0;
+						int wx1 = Math.min(bx1, x+radius+1) - bx0;
+						int a = wy0*iw + wx0, b = wy0*iw + wx1, c = wy1*iw + wx0, d = wy1*iw + wx1;
+
+						double n = (wx1-wx0)*(wy1-wy0);
+						double mean = (sum[d] - sum[b] - sum[c] + sum[a]) / n;
+						double variance = (squares[d] - squares[b] - squares[c] + squares[a]) / n - mean*mean;
+						double t = mean * (1 + k*(Math.sqrt(Math.max(0, variance))/R - 1));
+
+						out[y*width + x] = ((gray[y*width + x]&0xff) > t)? (byte)255:(byte)0;
+					}
+				}
+			}
+		});
+		return out;
+	}
+}
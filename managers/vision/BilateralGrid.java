@@ -0,0 +1,169 @@
+package vision;
+
+/*
+ * Edge preserving smoothing with the bilateral grid (Chen, Paris and Durand): pixels are
+ * splatted into a coarse 3D grid indexed by position and luma, the grid is blurred, and every
+ * pixel reads its smoothed color back out by trilinear interpolation at its own position and
+ * luma. Pixels on opposite sides of an edge land in different luma cells, so they don't mix.
+ *
+ * The grid is spatialSigma times smaller than the image in each direction and rangeSigma times
+ * smaller in luma, so the cost is two passes over the image plus a small blur whatever the
+ * kernel size.
+ */
+public class BilateralGrid {
+
+	/*
+	 * Defaults for denoising a page: the spatial extent in pixels, and the luma difference
+	 * (out of 255) beyond which pixels aren't averaged together.
+	 */
+	public static final int SPATIAL_SIGMA = 16;
+	public static final int RANGE_SIGMA = 24;
+
+	/*
+	 * Each cell holds the sums of channels 0, 1 and 2 and the number of pixels.
+	 */
+	private static final int CELL = 4;
+
+	/*
+	 * Smooth a 3 channel image in place with the default sigmas.
+	 */
+	public static void filter(byte[] data, int width, int height, int stride){
+		filter(data, width, height, stride, SPATIAL_SIGMA, RANGE_SIGMA);
+	}
+
+	/*
+	 * Smooth a 3 channel image in place.
+	 */
+	public static void filter(final byte[] data, final int width, final int height, final int stride, final int spatial, final int range){
+		//one cell of padding on every side so the blur and interpolation never leave the grid
+		final int gw = (width-1)/spatial + 3;
+		final int gh = (height-1)/spatial + 3;
+		final int gd = 255/range + 3;
+		final float[] grid = new float[gw*gh*gd*CELL];
+
+		/*
+		 * Splat: each pixel into its nearest cell. Strips of grid rows own disjoint pixel rows,
+		 * so they can run in parallel without locking.
+		 */
+		ParallelRaster.forEachStrip(gh, 4, new ParallelRaster.StripKernel(){
+			public void run(int g0, int g1){
+				int y0 = Math.max(0, (g0-2)*spatial);
+				int y1 = Math.min(height, g1*spatial);
+				for(int y=y0;y<y1;y++){
+					int gy = cellOf(y, spatial);
+					if (gy < g0 || gy >= g1){continue;}
+					for(int x=0;x<width;x++){
+						int o = y*stride + x*3;
+						int c0 = data[o]&0xff, c1 = data[o+1]&0xff, c2 = data[o+2]&0xff;
+						int luma = PixelKernels.luma(c0, c1, c2);
+						int i = ((gy*gw + cellOf(x, spatial))*gd + cellOf(luma, range))*CELL;
+						grid[i] += c0;
+						grid[i+1] += c1;
+						grid[i+2] += c2;
+						grid[i+3] += 1;
+					}
+				}
+			}
+		});
+
+		blur(grid, gw, gh, gd);
+
+		//slice: trilinear lookup at every pixel's own position and luma
+		ParallelRaster.forEachStrip(height, ParallelRaster.STRIP_ROWS, new ParallelRaster.StripKernel(){
+			public void run(int y0, int y1){
+				float[] cell = new float[CELL];
+				for(int y=y0;y<y1;y++){
+					float fy = (float)y/spatial + 1;
+					int gy = (int)fy;
+					float ty = fy - gy;
+					for(int x=0;x<width;x++){
+						int o = y*stride + x*3;
+						int c0 = data[o]&0xff, c1 = data[o+1]&0xff, c2 = data[o+2]&0xff;
+						int luma = PixelKernels.luma(c0, c1, c2);
+
+						float fx = (float)x/spatial + 1;
+						int gx = (int)fx;
+						float tx = fx - gx;
+						float fz = (float)luma/range + 1;
+						int gz = (int)fz;
+						float tz = fz - gz;
+
+						interpolate(grid, gw, gd, gx, gy, gz, tx, ty, tz, cell);
+						if (cell[3] <= 0){continue;}
+						data[o] = clamp(cell[0]/cell[3]);
+						data[o+1] = clamp(cell[1]/cell[3]);
+						data[o+2] = clamp(cell[2]/cell[3]);
+					}
+				}
+			}
+		});
+	}
+
+	/*
+	 * Nearest cell (counting the padding) of coordinate v on a grid with the given spacing.
+	 */
+	private static int cellOf(int v, int spacing){
+		return (2*v + spacing)/(2*spacing) + 1;
+	}
+
+	private static void interpolate(float[] grid, int gw, int gd, int gx, int gy, int gz, float tx, float ty, float tz, float[] out){
+		out[0] = out[1] = out[2] = out[3] = 0;
+		for(int dy=0;dy<2;dy++){
+			float wy = (dy == 0)? 1-ty : ty;
+			for(int dx=0;dx<2;dx++){
+				float wxy = wy * ((dx == 0)? 1-tx : tx);
+				int base = ((gy+dy)*gw + gx+dx)*gd + gz;
+				for(int dz=0;dz<2;dz++){
+					float w = wxy * ((dz == 0)? 1-tz : tz);
+					int i = (base+dz)*CELL;
+					out[0] += w*grid[i];
+					out[1] += w*grid[i+1];
+					out[2] += w*grid[i+2];
+					out[3] += w*grid[i+3];
+				}
+			}
+		}
+	}
+
+	/*
+	 * [1 2 1] blur along each of the three axes; cells outside the grid count as empty.
+	 */
+	private static void blur(float[] grid, int gw, int gh, int gd){
+		blurAxis(grid, gw*gh*gd, gd, CELL, gd);
+		blurAxis(grid, gw*gh*gd, gw*gd, gd*CELL, gw);
+		blurAxis(grid, gw*gh*gd, gw*gh*gd, gw*gd*CELL, gh);
+	}
+
+	/*
+	 * Blur every line along one axis. The grid is made of blocks of blockCells cells; within
+	 * a block, a line is length floats step apart, and one starts at each of the block's first
+	 * step floats.
+	 */
+	private static void blurAxis(final float[] grid, int totalCells, final int blockCells, final int step, final int length){
+		final int blocks = totalCells / blockCells;
+		final int lanes = step;
+		ParallelRaster.forEachStrip(blocks, Math.max(1, 4096/blockCells), new ParallelRaster.StripKernel(){
+			public void run(int b0, int b1){
+				float[] line = new float[length];
+				for(int b=b0;b<b1;b++){
+					int start = b*blockCells*CELL;
+					for(int lane=0;lane<lanes;lane++){
+						int s = start + lane;
+						for(int i=0;i<length;i++){
+							line[i] = grid[s + i*step];
+						}
+						for(int i=0;i<length;i++){
+							float left = (i > 0)? line[i-1] : 0;
+							float right = (i < length-1)? line[i+1] : 0;
+							grid[s + i*step] = 0.25f*left + 0.5f*line[i] + 0.25f*right;
+						}
+					}
+				}
+			}
+		});
+	}
+
+	private static byte clamp(float v){
+		return (byte)Math.max(0, Math.min(255, (int)(v + 0.5f)));
+	}
+}
@@ -0,0 +1,500 @@
+package vision;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * A black and white page as runs of black pixels. Each row is a sorted list of [start, end)
+ * intervals, and the rows are stored one after the other in a single int array, so a page of
+ * text costs a few bytes per run instead of three bytes per pixel.
+ *
+ * Morphology works on whole runs: dilation grows the runs of a row and takes the union of the
+ * rows around it, erosion shrinks them and takes the intersection. Connected components are
+ * found by union-find over runs which touch in neighbouring rows (8-connectivity). All of these
+ * are linear in the number of runs, and rows are handled in parallel strips where they can be.
+ *
+ * BitonalImages are immutable; every operation returns a new one.
+ */
+public class BitonalImage {
+
+	/*
+	 * Default for despeckle(): black specks of this many pixels or fewer are removed.
+	 */
+	public static final int SPECKLE_AREA = 4;
+
+	/*
+	 * Rows per strip when labelling components in parallel.
+	 */
+	private static final int LABEL_STRIP_ROWS = 64;
+
+	private static final int[] NO_RUNS = new int[0];
+
+	private final int width;
+	private final int height;
+
+	/*
+	 * Row y's runs are runs[rowStart[y]] to runs[rowStart[y+1]], as start, end pairs.
+	 */
+	private final int[] rowStart;
+	private final int[] runs;
+
+	private BitonalImage(int width, int height, int[][] rows){
+		this.width = width;
+		this.height = height;
+		this.rowStart = new int[height+1];
+		for(int y=0;y<height;y++){
+			rowStart[y+1] = rowStart[y] + rows[y].length;
+		}
+		this.runs = new int[rowStart[height]];
+		for(int y=0;y<height;y++){
+			System.arraycopy(rows[y], 0, runs, rowStart[y], rows[y].length);
+		}
+	}
+
+	/*
+	 * A black area found by components().
+	 */
+	public static class Component {
+		private final Rectangle bounds;
+		private final int area;
+
+		Component(Rectangle bounds, int area){
+			this.bounds = bounds;
+			this.area = area;
+		}
+
+		/*
+		 * Smallest rectangle holding the component, in pixels.
+		 */
+		public Rectangle bounds(){
+			return bounds;
+		}
+
+		/*
+		 * Number of black pixels in the component.
+		 */
+		public int area(){
+			return area;
+		}
+	}
+
+	/*
+	 * From row-major levels, one byte per pixel, where 0 is black and anything else white (as
+	 * returned by AdaptiveThreshold.threshold).
+	 */
+	public static BitonalImage fromLevels(final byte[] levels, final int width, int height){
+		final int[][] rows = new int[height][];
+		ParallelRaster.forEachStrip(height, ParallelRaster.STRIP_ROWS, new ParallelRaster.StripKernel(){
+			public void run(int y0, int y1){
+				int[] scratch = new int[width+1];
+				for(int y=y0;y<y1;y++){
+					int n = 0;
+					int i = y*width;
+					for(int x=0;x<width;){
+						if (levels[i+x] != 0){x++; continue;}
+						scratch[n++] = x;
+						while(x < width && levels[i+x] == 0){x++;}
+						scratch[n++] = x;
+					}
+					rows[y] = copy(scratch, n);
+				}
+			}
+		});
+		return new BitonalImage(width, height, rows);
+	}
+
+	/*
+	 * From any image. 1 bit images (TYPE_BYTE_BINARY, as rerenderImage gives for BITONAL) are read
+	 * bit for bit; anything else is black where its luma is below half.
+	 */
+	public static BitonalImage fromImage(BufferedImage img){
+		final int width = img.getWidth();
+		int height = img.getHeight();
+
+		if (img.getType() != BufferedImage.TYPE_BYTE_BINARY || img.getColorModel().getPixelSize() != 1){
+			BufferedImage color = ParallelRaster.threeByte(img);
+			byte[] gray = PixelKernels.gray(ParallelRaster.bytes(color), width, height, ParallelRaster.stride(color));
+			for(int i=0;i<gray.length;i++){
+				gray[i] = ((gray[i]&0xff) < 128)? 0 : (byte)255;
+			}
+			return fromLevels(gray, width, height);
+		}
+
+		//which bit value is black depends on the palette
+		IndexColorModel palette = (IndexColorModel)img.getColorModel();
+		final int black = (luma(palette.getRGB(0)) <= luma(palette.getRGB(1)))? 0 : 1;
+		final byte[] packed = ((DataBufferByte)img.getRaster().getDataBuffer()).getData();
+		final int stride = ((MultiPixelPackedSampleModel)img.getSampleModel()).getScanlineStride();
+		final int[][] rows = new int[height][];
+
+		ParallelRaster.forEachStrip(height, ParallelRaster.STRIP_ROWS, new ParallelRaster.StripKernel(){
+			public void run(int y0, int y1){
+				int[] scratch = new int[width+1];
+				for(int y=y0;y<y1;y++){
+					int n = 0;
+					boolean inRun = false;
+					for(int x=0;x<width;x++){
+						int bits = packed[y*stride + (x>>3)]&0xff;
+						//skip whole bytes which don't change anything
+						if ((x&7) == 0 && x+8 <= width && bits == ((inRun == (black == 1))? 0xff : 0)){
+							x += 7;
+							continue;
+						}
+						boolean isBlack = ((bits >> (7 - (x&7))) & 1) == black;
+						if (isBlack != inRun){
+							scratch[n++] = x;
+							inRun = isBlack;
+						}
+					}
+					if (inRun){scratch[n++] = width;}
+					rows[y] = copy(scratch, n);
+				}
+			}
+		});
+		return new BitonalImage(width, height, rows);
+	}
+
+	/*
+	 * As a 1 bit TYPE_BYTE_BINARY image (bit 1 is white).
+	 */
+	public BufferedImage toImage(){
+		BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_BINARY);
+		final byte[] packed = ((DataBufferByte)img.getRaster().getDataBuffer()).getData();
+		final int stride = ((MultiPixelPackedSampleModel)img.getSampleModel()).getScanlineStride();
+
+		ParallelRaster.forEachStrip(height, ParallelRaster.STRIP_ROWS, new ParallelRaster.StripKernel(){
+			public void run(int y0, int y1){
+				Arrays.fill(packed, y0*stride, y1*stride, (byte)0xff);
+				for(int y=y0;y<y1;y++){
+					int o = y*stride;
+					for(int r=rowStart[y];r<rowStart[y+1];r+=2){
+						for(int x=runs[r];x<runs[r+1];x++){
+							packed[o + (x>>3)] &= ~(0x80 >> (x&7));
+						}
+					}
+				}
+			}
+		});
+		return img;
+	}
+
+	public int width(){
+		return width;
+	}
+
+	public int height(){
+		return height;
+	}
+
+	/*
+	 * Number of runs of black pixels.
+	 */
+	public int runCount(){
+		return runs.length/2;
+	}
+
+	/*
+	 * Number of black pixels.
+	 */
+	public long blackPixels(){
+		long count = 0;
+		for(int r=0;r<runs.length;r+=2){
+			count += runs[r+1] - runs[r];
+		}
+		return count;
+	}
+
+	/*
+	 * A copy of the runs of row y as start, end pairs.
+	 */
+	public int[] row(int y){
+		return copy(runs, rowStart[y], rowStart[y+1]);
+	}
+
+	/*
+	 * Grow the black by radius pixels in every direction (a square structuring element).
+	 */
+	public BitonalImage dilate(final int radius){
+		if (radius <= 0){return this;}
+		final int[][] grown = new int[height][];
+		ParallelRaster.forEachStrip(height, ParallelRaster.STRIP_ROWS, new ParallelRaster.StripKernel(){
+			public void run(int y0, int y1){
+				for(int y=y0;y<y1;y++){
+					int[] out = NO_RUNS;
+					for(int yy=Math.max(0, y-radius);yy<=Math.min(height-1, y+radius);yy++){
+						out = union(out, grow(yy, radius));
+					}
+					grown[y] = out;
+				}
+			}
+		});
+		return new BitonalImage(width, height, grown);
+	}
+
+	/*
+	 * Shrink the black by radius pixels in every direction (a square structuring element). The
+	 * outside of the image counts as black, so runs aren't eaten away at the borders.
+	 */
+	public BitonalImage erode(final int radius){
+		if (radius <= 0){return this;}
+		final int[][] shrunk = new int[height][];
+		ParallelRaster.forEachStrip(height, ParallelRaster.STRIP_ROWS, new ParallelRaster.StripKernel(){
+			public void run(int y0, int y1){
+				for(int y=y0;y<y1;y++){
+					int[] out = shrink(y, radius);
+					for(int yy=Math.max(0, y-radius);yy<=Math.min(height-1, y+radius) && out.length > 0;yy++){
+						if (yy != y){out = intersect(out, shrink(yy, radius));}
+					}
+					shrunk[y] = out;
+				}
+			}
+		});
+		return new BitonalImage(width, height, shrunk);
+	}
+
+	/*
+	 * Erode then dilate: removes black details smaller than the structuring element.
+	 */
+	public BitonalImage open(int radius){
+		return erode(radius).dilate(radius);
+	}
+
+	/*
+	 * Dilate then erode: fills white gaps smaller than the structuring element.
+	 */
+	public BitonalImage close(int radius){
+		return dilate(radius).erode(radius);
+	}
+
+	/*
+	 * Remove black components of SPECKLE_AREA pixels or fewer.
+	 */
+	public BitonalImage despeckle(){
+		return despeckle(SPECKLE_AREA);
+	}
+
+	/*
+	 * Remove black components of maxArea pixels or fewer.
+	 */
+	public BitonalImage despeckle(int maxArea){
+		int[] labels = new int[runCount()];
+		int count = labelRuns(labels);
+
+		int[] area = new int[count];
+		for(int r=0;r<labels.length;r++){
+			area[labels[r]] += runs[2*r+1] - runs[2*r];
+		}
+
+		int[][] rows = new int[height][];
+		int[] scratch = new int[width+1];
+		for(int y=0;y<height;y++){
+			int n = 0;
+			for(int r=rowStart[y];r<rowStart[y+1];r+=2){
+				if (area[labels[r/2]] > maxArea){
+					scratch[n++] = runs[r];
+					scratch[n++] = runs[r+1];
+				}
+			}
+			rows[y] = copy(scratch, n);
+		}
+		return new BitonalImage(width, height, rows);
+	}
+
+	/*
+	 * The 8-connected black components, in the order of their first (top, then leftmost) run.
+	 */
+	public List<Component> components(){
+		int[] labels = new int[runCount()];
+		int count = labelRuns(labels);
+
+		int[] minX = new int[count], minY = new int[count], maxX = new int[count], maxY = new int[count];
+		int[] area = new int[count];
+		Arrays.fill(minX, Integer.MAX_VALUE);
+		Arrays.fill(minY, Integer.MAX_VALUE);
+		for(int y=0;y<height;y++){
+			for(int r=rowStart[y];r<rowStart[y+1];r+=2){
+				int c = labels[r/2];
+				minX[c] = Math.min(minX[c], runs[r]);
+				maxX[c] = Math.max(maxX[c], runs[r+1]);
+				minY[c] = Math.min(minY[c], y);
+				maxY[c] = Math.max(maxY[c], y+1);
+				area[c] += runs[r+1] - runs[r];
+			}
+		}
+
+		List<Component> components = new ArrayList<Component>(count);
+		for(int c=0;c<count;c++){
+			components.add(new Component(new Rectangle(minX[c], minY[c], maxX[c]-minX[c], maxY[c]-minY[c]), area[c]));
+		}
+		return components;
+	}
+
+	/*
+	 * Give every run the label of its component, numbered from 0 in the order of each
+	 * component's first run, and return the number of components.
+	 *
+	 * Strips of LABEL_STRIP_ROWS rows are joined up in parallel: a strip only ever links its
+	 * own runs, so the strips share the parent array without locking. The rows either side of
+	 * each strip boundary are joined afterwards.
+	 */
+	int labelRuns(int[] labels){
+		final int[] parent = new int[runCount()];
+		for(int i=0;i<parent.length;i++){
+			parent[i] = i;
+		}
+
+		final int strips = (height + LABEL_STRIP_ROWS - 1)/LABEL_STRIP_ROWS;
+		ParallelRaster.forEachStrip(strips, 1, new ParallelRaster.StripKernel(){
+			public void run(int s0, int s1){
+				for(int y=s0*LABEL_STRIP_ROWS + 1;y<Math.min(height, s1*LABEL_STRIP_ROWS);y++){
+					if (y % LABEL_STRIP_ROWS != 0){joinRows(parent, y);}
+				}
+			}
+		});
+		for(int y=LABEL_STRIP_ROWS;y<height;y+=LABEL_STRIP_ROWS){
+			joinRows(parent, y);
+		}
+
+		int count = 0;
+		for(int i=0;i<parent.length;i++){
+			int root = find(parent, i);
+			labels[i] = (root == i)? count++ : labels[root];
+		}
+		return count;
+	}
+
+	/*
+	 * Join every run of row y to the runs it touches in row y-1. Runs touch if they overlap once
+	 * each is widened by a pixel on the right.
+	 */
+	private void joinRows(int[] parent, int y){
+		int a = rowStart[y-1], aEnd = rowStart[y];
+		int b = rowStart[y], bEnd = rowStart[y+1];
+		while(a < aEnd && b < bEnd){
+			if (runs[a] <= runs[b+1] && runs[b] <= runs[a+1]){
+				union(parent, a/2, b/2);
+			}
+			if (runs[a+1] < runs[b+1]){a += 2;}else{b += 2;}
+		}
+	}
+
+	private static int find(int[] parent, int i){
+		while(parent[i] != i){
+			parent[i] = parent[parent[i]];
+			i = parent[i];
+		}
+		return i;
+	}
+
+	/*
+	 * Join the sets of i and j under the smaller root, so that roots are always a set's first run.
+	 */
+	private static void union(int[] parent, int i, int j){
+		int ri = find(parent, i);
+		int rj = find(parent, j);
+		if (ri < rj){parent[rj] = ri;}else if (rj < ri){parent[ri] = rj;}
+	}
+
+	/*
+	 * Row y's runs widened by radius on each side and clipped to the image.
+	 */
+	private int[] grow(int y, int radius){
+		int[] out = new int[rowStart[y+1] - rowStart[y]];
+		int n = 0;
+		for(int r=rowStart[y];r<rowStart[y+1];r+=2){
+			int start = Math.max(0, runs[r] - radius);
+			int end = Math.min(width, runs[r+1] + radius);
+			if (n > 0 && start <= out[n-1]){
+				out[n-1] = end;
+			}else{
+				out[n++] = start;
+				out[n++] = end;
+			}
+		}
+		return copy(out, n);
+	}
+
+	/*
+	 * Row y's runs narrowed by radius on each side, except at the image borders.
+	 */
+	private int[] shrink(int y, int radius){
+		int[] out = new int[rowStart[y+1] - rowStart[y]];
+		int n = 0;
+		for(int r=rowStart[y];r<rowStart[y+1];r+=2){
+			int start = (runs[r] == 0)? 0 : runs[r] + radius;
+			int end = (runs[r+1] == width)? width : runs[r+1] - radius;
+			if (start < end){
+				out[n++] = start;
+				out[n++] = end;
+			}
+		}
+		return copy(out, n);
+	}
+
+	/*
+	 * Union of two sorted run lists, merging runs which overlap or touch.
+	 */
+	private static int[] union(int[] a, int[] b){
+		if (a.length == 0){return b;}
+		if (b.length == 0){return a;}
+		int[] out = new int[a.length + b.length];
+		int n = 0, i = 0, j = 0;
+		while(i < a.length || j < b.length){
+			int start, end;
+			if (j >= b.length || (i < a.length && a[i] <= b[j])){
+				start = a[i]; end = a[i+1]; i += 2;
+			}else{
+				start = b[j]; end = b[j+1]; j += 2;
+			}
+			if (n > 0 && start <= out[n-1]){
+				out[n-1] = Math.max(out[n-1], end);
+			}else{
+				out[n++] = start;
+				out[n++] = end;
+			}
+		}
+		return copy(out, n);
+	}
+
+	/*
+	 * Intersection of two sorted run lists.
+	 */
+	private static int[] intersect(int[] a, int[] b){
+		int[] out = new int[a.length + b.length];
+		int n = 0, i = 0, j = 0;
+		while(i < a.length && j < b.length){
+			int start = Math.max(a[i], b[j]);
+			int end = Math.min(a[i+1], b[j+1]);
+			if (start < end){
+				out[n++] = start;
+				out[n++] = end;
+			}
+			if (a[i+1] < b[j+1]){i += 2;}else{j += 2;}
+		}
+		return copy(out, n);
+	}
+
+	private static int[] copy(int[] a, int n){
+		return copy(a, 0, n);
+	}
+
+	private static int[] copy(int[] a, int from, int to){
+		if (to == from){return NO_RUNS;}
+		int[] out = new int[to-from];
+		System.arraycopy(a, from, out, 0, to-from);
+		return out;
+	}
+
+	/*
+	 * Luma of a packed RGB color (see PixelKernels.luma; blue is channel 0).
+	 */
+	private static int luma(int rgb){
+		return PixelKernels.luma(rgb&0xff, (rgb>>8)&0xff, (rgb>>16)&0xff);
+	}
+}
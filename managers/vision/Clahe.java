@@ -0,0 +1,127 @@
+package vision;
+
+/*
+ * Contrast limited adaptive histogram equalization of the luma of a 3 channel image.
+ *
+ * The image is cut into a TILES x TILES grid and each tile gets its own equalization table, from
+ * its histogram clipped at clip times the mean bin count (the excess spread evenly over all bins),
+ * so flat paper isn't stretched into noise. Every pixel then blends the tables of the four tile
+ * centres around it bilinearly, which hides the tile edges.
+ *
+ * Only luma changes: the difference between old and new luma is added to every channel, which
+ * leaves the chroma (Cb, Cr) of each pixel as it was.
+ */
+public class Clahe {
+
+	/*
+	 * Defaults: tiles along each side, and the histogram clip limit.
+	 */
+	public static final int TILES = 8;
+	public static final double CLIP_LIMIT = 3.0;
+
+	/*
+	 * Equalize a 3 channel image in place with the default tiles and clip limit.
+	 */
+	public static void equalize(byte[] data, int width, int height, int stride){
+		equalize(data, width, height, stride, TILES, CLIP_LIMIT);
+	}
+
+	/*
+	 * Equalize a 3 channel image in place.
+	 */
+	public static void equalize(final byte[] data, final int width, final int height, final int stride, int tiles, final double clip){
+		final int tx = Math.max(1, Math.min(tiles, width));
+		final int ty = Math.max(1, Math.min(tiles, height));
+		final byte[][] luts = new byte[tx*ty][];
+
+		//a table per tile, from the tile's own histogram
+		ParallelRaster.forEachStrip(tx*ty, 1, new ParallelRaster.StripKernel(){
+			public void run(int t0, int t1){
+				for(int t=t0;t<t1;t++){
+					int x0 = (t%tx)*width/tx, x1 = (t%tx + 1)*width/tx;
+					int y0 = (t/tx)*height/ty, y1 = (t/tx + 1)*height/ty;
+					int[] histogram = new int[256];
+					for(int y=y0;y<y1;y++){
+						int end = y*stride + x1*3;
+						for(int o=y*stride + x0*3;o<end;o+=3){
+							histogram[PixelKernels.luma(data, o)]++;
+						}
+					}
+					luts[t] = equalizationLut(histogram, (x1-x0)*(y1-y0), clip);
+				}
+			}
+		});
+
+		//which tile centres are left and right of each column, and how far between them
+		final int[] left = new int[width];
+		final int[] right = new int[width];
+		final float[] across = new float[width];
+		for(int x=0;x<width;x++){
+			float fx = (x + 0.5f)*tx/width - 0.5f;
+			int sa = (int)Math.floor(fx);
+			across[x] = fx - sa;
+			left[x] = Math.max(0, sa);
+			right[x] = Math.min(tx-1, sa+1);
+		}
+
+		//one pass: blend the tables of the four surrounding tile centres
+		ParallelRaster.forEachStrip(height, ParallelRaster.STRIP_ROWS, new ParallelRaster.StripKernel(){
+			public void run(int y0, int y1){
+				for(int y=y0;y<y1;y++){
+					float fy = (y + 0.5f)*ty/height - 0.5f;
+					int ta = (int)Math.floor(fy);
+					float wy = fy - ta;
+					int tb = Math.min(ty-1, ta+1);
+					ta = Math.max(0, ta);
+
+					for(int x=0;x<width;x++){
+						float wx = across[x];
+						int o = y*stride + x*3;
+						int v = PixelKernels.luma(data, o);
+						float top = (1-wx)*(luts[ta*tx + left[x]][v]&0xff) + wx*(luts[ta*tx + right[x]][v]&0xff);
+						float bottom = (1-wx)*(luts[tb*tx + left[x]][v]&0xff) + wx*(luts[tb*tx + right[x]][v]&0xff);
+						int delta = (int)((1-wy)*top + wy*bottom + 0.5f) - v;
+
+						data[o] = clamp((data[o]&0xff) + delta);
+						data[o+1] = clamp((data[o+1]&0xff) + delta);
+						data[o+2] = clamp((data[o+2]&0xff) + delta);
+					}
+				}
+			}
+		});
+	}
+
+	/*
+	 * Clip the histogram, spread what was cut off evenly, and turn the cumulative sum into a
+	 * table onto [0,255].
+	 */
+	private static byte[] equalizationLut(int[] histogram, int count, double clip){
+		byte[] lut = new byte[256];
+		if (count == 0){return lut;}
+
+		int limit = Math.max(1, (int)(clip*count/256));
+		int excess = 0;
+		for(int v=0;v<256;v++){
+			if (histogram[v] > limit){
+				excess += histogram[v] - limit;
+				histogram[v] = limit;
+			}
+		}
+		int share = excess/256;
+		int remainder = excess%256;
+		for(int v=0;v<256;v++){
+			histogram[v] += share + ((v < remainder)? 1:0);
+		}
+
+		int sum = 0;
+		for(int v=0;v<256;v++){
+			sum += histogram[v];
+			lut[v] = (byte)Math.min(255, (int)((long)sum*255/count));
+		}
+		return lut;
+	}
+
+	private static byte clamp(int v){
+		return (byte)Math.max(0, Math.min(255, v));
+	}
+}
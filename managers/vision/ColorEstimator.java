@@ -0,0 +1,168 @@
+package vision;
+
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+
+import core.Corners;
+
+/*
+ * Guesses the color temperature and contrast settings for a page from a sparse grid of samples
+ * spread over it, so the cost is the same whatever the size of the image.
+ *
+ * White balance is white-patch: paper is meant to be neutral, so the brightest samples (less
+ * any clipped ones, which have lost their color) are taken to be paper and the temperature is
+ * whatever makes their channels 0 and 2 equal. With too few of those it falls back to gray-world,
+ * the mean of every sample. Where the samples say the estimate can't be trusted (see
+ * temperature()) the page is left neutral rather than given the background's color.
+ *
+ * Contrast boost is turned on for pages whose paper came out dim, or whose ink is only a little
+ * darker than their paper. A page with no ink at all is left alone, since boosting it would
+ * only bring up the noise.
+ */
+public class ColorEstimator {
+
+	/*
+	 * Samples along each side of the page, and the share of each side left out, where the
+	 * paper's edge and the background tend to be.
+	 */
+	public static final int GRID = 64;
+	private static final double MARGIN = 0.05;
+
+	/*
+	 * The brightest share of samples is taken to be paper, unless any channel is at least
+	 * CLIPPED; with fewer than MIN_PAPER of those left the balance is gray-world.
+	 */
+	private static final double PAPER_SHARE = 0.2;
+	private static final int CLIPPED = 250;
+	private static final int MIN_PAPER = 32;
+
+	/*
+	 * The temperature slider's range; estimates within DEAD_ZONE of neutral are left neutral.
+	 * Estimates past the range are left neutral too: a cast that strong is the color of whatever
+	 * the page lies on, not of the light.
+	 */
+	public static final int MAX_TEMPERATURE = 50;
+	private static final int DEAD_ZONE = 2;
+
+	/*
+	 * Paper is one color, so when the standard deviation of channel 2 less channel 0 over the
+	 * paper samples is more than this, most of them are something else (a table, a picture)
+	 * and the page is left neutral. Pages of paper come to 6 or less.
+	 */
+	private static final double MAX_PAPER_SPREAD = 12;
+
+	/*
+	 * Luma percentiles taken as ink and as paper, and the luma levels (out of 255) below which
+	 * paper is dim, ink is too faint against it, and there is no ink at all.
+	 */
+	private static final double INK_PERCENTILE = 0.02;
+	private static final double PAPER_PERCENTILE = 0.9;
+	private static final int DIM_PAPER = 150;
+	private static final int LOW_CONTRAST = 96;
+	private static final int NO_INK = 24;
+
+	private final int[] c0;
+	private final int[] c2;
+	private final int[] luma;
+	private final boolean[] clipped;
+	private final int[] lumaHistogram;
+
+	private ColorEstimator(int samples){
+		c0 = new int[samples];
+		c2 = new int[samples];
+		luma = new int[samples];
+		clipped = new boolean[samples];
+		lumaHistogram = new int[256];
+	}
+
+	/*
+	 * Sample img on a GRID x GRID lattice spread over the page with the given corners (in img's
+	 * coordinates), bilinearly between them.
+	 */
+	public static ColorEstimator sample(BufferedImage img, Corners corners){
+		int width = img.getWidth();
+		int height = img.getHeight();
+		Point ul = corners.upleft(), ur = corners.upright(), dl = corners.downleft(), dr = corners.downright();
+
+		ColorEstimator samples = new ColorEstimator(GRID*GRID);
+		int i = 0;
+		for(int gy=0;gy<GRID;gy++){
+			double v = MARGIN + (1 - 2*MARGIN)*(gy + 0.5)/GRID;
+			for(int gx=0;gx<GRID;gx++, i++){
+				double u = MARGIN + (1 - 2*MARGIN)*(gx + 0.5)/GRID;
+				double topX = ul.x + u*(ur.x - ul.x), topY = ul.y + u*(ur.y - ul.y);
+				double bottomX = dl.x + u*(dr.x - dl.x), bottomY = dl.y + u*(dr.y - dl.y);
+				int x = Math.max(0, Math.min(width-1, (int)(topX + v*(bottomX - topX))));
+				int y = Math.max(0, Math.min(height-1, (int)(topY + v*(bottomY - topY))));
+
+				//channels in the order of a TYPE_3BYTE_BGR image's bytes, as the pipeline sees them
+				int rgb = img.getRGB(x, y);
+				int a = rgb&0xff, b = (rgb>>8)&0xff, c = (rgb>>16)&0xff;
+				samples.c0[i] = a;
+				samples.c2[i] = c;
+				samples.luma[i] = PixelKernels.luma(a, b, c);
+				samples.clipped[i] = a >= CLIPPED || b >= CLIPPED || c >= CLIPPED;
+				samples.lumaHistogram[samples.luma[i]]++;
+			}
+		}
+		return samples;
+	}
+
+	/*
+	 * The ColorTemperature which makes the paper neutral, within the slider's range. The
+	 * temperature is added to channel 0 and taken from channel 2 (see TransformPipeline), so it
+	 * is half their difference on the paper. Neutral (0) when the samples taken for paper don't
+	 * agree on its color, or the difference is past the slider's range.
+	 */
+	public int temperature(){
+		int brightest = percentile(1 - PAPER_SHARE);
+		long sum0 = 0, sum2 = 0, sumSquares = 0;
+		int count = 0;
+		for(int i=0;i<luma.length;i++){
+			if (luma[i] >= brightest && !clipped[i]){
+				sum0 += c0[i];
+				sum2 += c2[i];
+				sumSquares += (long)(c2[i] - c0[i])*(c2[i] - c0[i]);
+				count++;
+			}
+		}
+		if (count < MIN_PAPER){
+			sum0 = sum2 = 0;
+			for(int i=0;i<luma.length;i++){
+				sum0 += c0[i];
+				sum2 += c2[i];
+			}
+			count = luma.length;
+		}else{
+			double mean = (double)(sum2 - sum0)/count;
+			if ((double)sumSquares/count - mean*mean > MAX_PAPER_SPREAD*MAX_PAPER_SPREAD){return 0;}
+		}
+
+		int temperature = (int)Math.round((sum2 - sum0)/(2.0*count));
+		if (Math.abs(temperature) <= DEAD_ZONE || Math.abs(temperature) > MAX_TEMPERATURE){return 0;}
+		return temperature;
+	}
+
+	/*
+	 * Whether the page needs its contrast boosted (see Clahe).
+	 */
+	public boolean lowContrast(){
+		int ink = percentile(INK_PERCENTILE);
+		int paper = percentile(PAPER_PERCENTILE);
+		if (paper - ink < NO_INK){return false;}
+		return paper < DIM_PAPER || paper - ink < LOW_CONTRAST;
+	}
+
+	/*
+	 * The lowest luma at least the given share of the samples are darker than.
+	 */
+	private int percentile(double share){
+		int target = (int)(share*luma.length);
+		int seen = 0;
+		for(int v=0;v<256;v++){
+			seen += lumaHistogram[v];
+			if (seen > target){return v;}
+		}
+		return 255;
+	}
+}
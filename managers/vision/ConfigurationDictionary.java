@@ -1,5 +1,6 @@
 package vision;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -30,6 +31,7 @@ public class ConfigurationDictionary {
 		elementNames.put("FLIPV", ConfigurationValue.ValueType.FlipVertical);
 		elementNames.put("BILATERAL", ConfigurationValue.ValueType.BilateralFilter);
 		elementNames.put("BINARIZED", ConfigurationValue.ValueType.Binarize);
+		elementNames.put("ROTATION", ConfigurationValue.ValueType.Rotation);
 		
 		for(Object _key: elementNames.keySet()){
 			String key = (String)_key;
@@ -39,10 +41,12 @@ public class ConfigurationDictionary {
 				ConfigurationValue.ValueType currentType = elementNames.get(element.getName());
 				
 				try{
-					if (currentType == ConfigurationValue.ValueType.FlipHorizontal || currentType == ConfigurationValue.ValueType.FlipVertical || currentType == ConfigurationValue.ValueType.BilateralFilter || currentType == ConfigurationValue.ValueType.ContrastBoost){
+					if (currentType == ConfigurationValue.ValueType.FlipHorizontal || currentType == ConfigurationValue.ValueType.FlipVertical || currentType == ConfigurationValue.ValueType.BilateralFilter || currentType == ConfigurationValue.ValueType.ContrastBoost || currentType == ConfigurationValue.ValueType.Binarize){
 						this.setKey(new ConfigurationValue(currentType, value.equals("true")? true:false));
 					}else if (currentType == ConfigurationValue.ValueType.ColorTemperature){
 						this.setKey(new ConfigurationValue(currentType, Integer.parseInt(value)));
+					}else if (currentType == ConfigurationValue.ValueType.Rotation){
+						this.setKey(new ConfigurationValue(currentType, Double.parseDouble(value)));
 					}else{
 						System.err.println("Not sure how to process a type!");
 					}
@@ -81,6 +85,7 @@ public class ConfigurationDictionary {
 		elementNames.put(ConfigurationValue.ValueType.FlipVertical, "FLIPV");
 		elementNames.put(ConfigurationValue.ValueType.BilateralFilter, "BILATERAL");
 		elementNames.put(ConfigurationValue.ValueType.Binarize, "BINARIZED");
+		elementNames.put(ConfigurationValue.ValueType.Rotation, "ROTATION");
 		
 		for(Object _key: this.getAllKeys()){
 			String key = (String)_key;
@@ -128,6 +133,20 @@ public class ConfigurationDictionary {
 		return join(repr, "\n");
 	}
 	
+	/*
+	 * A string which is equal for two dictionaries exactly when they hold the same values,
+	 * whatever order they were set in. Used to key cached renders.
+	 */
+	public String cacheKey(){
+		LinkedList<String> repr = new LinkedList<String>();
+		for(Object _key: this.getAllKeys()){
+			String key = (String)_key;
+			repr.add( key + "=" + this.getKeyWithName(key).value().toString() );
+		}
+		Collections.sort(repr);
+		return join(repr, ";");
+	}
+	
 	public ConfigurationDictionary getCopy() {
 		return new ConfigurationDictionary((HashMap<String, ConfigurationValue>) this.map.clone());
 	}
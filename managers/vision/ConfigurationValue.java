@@ -14,7 +14,7 @@ public class ConfigurationValue {
 	public ValueType type;
 	
 	public static enum ValueType{
-		FlipHorizontal, FlipVertical, ColorTemperature, ContrastBoost, BilateralFilter, Binarize;
+		FlipHorizontal, FlipVertical, ColorTemperature, ContrastBoost, BilateralFilter, Binarize, Rotation;
 	}
 	
 	public ConfigurationValue(ValueType type, int value) throws InvalidTypingException{
@@ -25,7 +25,7 @@ public class ConfigurationValue {
 		this.type = type;
 	}
 	public ConfigurationValue(ValueType type, double value) throws InvalidTypingException{
-		if (true){
+		if (type != ValueType.Rotation){
 			throw new InvalidTypingException("Configuration type and value do not match");
 		}
 		this._dbl = value;
@@ -48,6 +48,7 @@ public class ConfigurationValue {
 		names.put(ValueType.ContrastBoost, "contrastboost");
 		names.put(ValueType.BilateralFilter, "bilateral");
 		names.put(ValueType.Binarize, "binarize");
+		names.put(ValueType.Rotation, "rotation");
 		return names.get(type);
 	}
 	
@@ -56,7 +57,7 @@ public class ConfigurationValue {
 			return (Object)new Integer(this._int);
 		}else if (this.type == ValueType.FlipHorizontal || this.type == ValueType.FlipVertical || this.type == ValueType.ContrastBoost || this.type == ValueType.BilateralFilter || this.type == ValueType.Binarize){
 			return (Object)new Boolean(this._bool);
-		}else if (false){
+		}else if (this.type == ValueType.Rotation){
 			return (Object)new Double(this._dbl);
 		}
 		System.err.println("ConfigurationValue doesn't know how to return a value for its type!");
@@ -0,0 +1,278 @@
+package vision;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/*
+ * The corner detection front end in plain Java, for machines without the native javacv
+ * libraries: area resize, the "optimal" gray projection and the Harris response, with the same
+ * definitions as cvResize(CV_INTER_AREA), VisionManager.optimalGrayImage and cvCornerHarris
+ * (5x5 Sobel, unnormalized box window, reflect-101 borders, OpenCV's scaling).
+ *
+ * Images are primitive arrays and every stage runs over row strips (see ParallelRaster).
+ */
+public class CornerDetector {
+
+	private static final int[] SOBEL_SMOOTH = {1, 4, 6, 4, 1};
+	private static final int[] SOBEL_DERIVATIVE = {-1, -2, 0, 2, 1};
+	private static final int APERTURE = 5;
+
+	/*
+	 * Scale img so that its longest side is maxSide (same rounding as resizeMaxSide), averaging
+	 * each output pixel over the part of the source it covers.
+	 */
+	public static BufferedImage resizeArea(BufferedImage img, int maxSide){
+		BufferedImage source = ParallelRaster.threeByte(img);
+		final byte[] src = ParallelRaster.bytes(source);
+		final int srcStride = ParallelRaster.stride(source);
+		final int sw = source.getWidth();
+		int sh = source.getHeight();
+
+		int nw, nh;
+		if (sw > sh){
+			nw = maxSide;
+			nh = (int) ((sh*1.0/sw)*nw);
+		}else{
+			nh = maxSide;
+			nw = (int) ((sw*1.0/sh)*nh);
+		}
+		nw = Math.max(1, nw);
+		nh = Math.max(1, nh);
+		final int width = nw;
+
+		final AreaWeights xs = new AreaWeights(sw, nw);
+		final AreaWeights ys = new AreaWeights(sh, nh);
+
+		BufferedImage output = new BufferedImage(nw, nh, BufferedImage.TYPE_3BYTE_BGR);
+		final byte[] dst = ParallelRaster.bytes(output);
+		final int dstStride = ParallelRaster.stride(output);
+
+		ParallelRaster.forEachStrip(nh, ParallelRaster.STRIP_ROWS/4, new ParallelRaster.StripKernel(){
+			public void run(int y0, int y1){
+				float[] row = new float[width*3];
+				for(int y=y0;y<y1;y++){
+					Arrays.fill(row, 0);
+					//vertical: weighted sum of the source rows, each already resampled horizontally
+					for(int j=ys.start[y];j<ys.start[y+1];j++){
+						float wy = ys.weight[j];
+						int s = ys.index[j]*srcStride;
+						for(int x=0;x<width;x++){
+							float r0 = 0, r1 = 0, r2 = 0;
+							for(int i=xs.start[x];i<xs.start[x+1];i++){
+								int o = s + xs.index[i]*3;
+								float wx = xs.weight[i];
+								r0 += (src[o]&0xff)*wx;
+								r1 += (src[o+1]&0xff)*wx;
+								r2 += (src[o+2]&0xff)*wx;
+							}
+							row[x*3] += r0*wy;
+							row[x*3+1] += r1*wy;
+							row[x*3+2] += r2*wy;
+						}
+					}
+					int o = y*dstStride;
+					for(int i=0;i<width*3;i++){
+						dst[o+i] = (byte)Math.min(255, (int)(row[i] + 0.5f));
+					}
+				}
+			}
+		});
+
+		return output;
+	}
+
+	/*
+	 * The gray projection VisionManager.optimalGrayImage makes: each channel weighted by its
+	 * mean absolute deviation raised to power, normalized to sum to one.
+	 */
+	public static byte[] optimalGray(byte[] data, int width, int height, int stride, int power){
+		double[] weights = deviationWeights(data, width, height, stride, power);
+		return PixelKernels.grayProject(data, width, height, stride, weights[0], weights[1], weights[2]);
+	}
+
+	/*
+	 * Per channel weights for optimalGray. The deviations come from one pass of channel
+	 * histograms, so the power is taken 256 times per channel rather than once per sample.
+	 */
+	static double[] deviationWeights(byte[] data, int width, int height, int stride, int power){
+		int[] histogram = PixelKernels.channelHistograms(data, width, height, stride);
+		double count = (double)width*height;
+
+		double[] var = new double[3];
+		double total = 0;
+		for(int c=0;c<3;c++){
+			double mu = 0;
+			for(int v=0;v<256;v++){
+				mu += (double)v*histogram[c*256 + v];
+			}
+			mu /= count;
+
+			for(int v=0;v<256;v++){
+				if (histogram[c*256 + v] == 0){continue;}
+				var[c] += histogram[c*256 + v]*Math.abs(Math.pow(v - mu, power));
+			}
+			var[c] /= count;
+			total += var[c];
+		}
+
+		if (total == 0){return new double[]{1/3.0, 1/3.0, 1/3.0};}
+		return new double[]{var[0]/total, var[1]/total, var[2]/total};
+	}
+
+	/*
+	 * Harris response of a row-major 8 bit gray image: det(M) - k*trace(M)^2, where M sums the
+	 * gradient products over a blockSize square (anchored like OpenCV's, so an even size
+	 * reaches one further up and left).
+	 */
+	public static float[] harris(final byte[] gray, final int width, final int height, final int blockSize, final double k){
+		final float scale = (float)(1.0 / ((1 << (APERTURE-1)) * blockSize * 255.0));
+		final float[] xx = new float[width*height];
+		final float[] xy = new float[width*height];
+		final float[] yy = new float[width*height];
+
+		final int[] rx = reflectTable(width, APERTURE/2);
+		final int[] ry = reflectTable(height, APERTURE/2);
+
+		//5x5 Sobel in both directions, then the products
+		ParallelRaster.forEachStrip(height, ParallelRaster.STRIP_ROWS/4, new ParallelRaster.StripKernel(){
+			public void run(int y0, int y1){
+				float[] smooth = new float[width];
+				float[] deriv = new float[width];
+				for(int y=y0;y<y1;y++){
+					for(int x=0;x<width;x++){
+						int s = 0, d = 0;
+						for(int t=0;t<APERTURE;t++){
+							int v = gray[ry[y+t]*width + x]&0xff;
+							s += SOBEL_SMOOTH[t]*v;
+							d += SOBEL_DERIVATIVE[t]*v;
+						}
+						smooth[x] = s;
+						deriv[x] = d;
+					}
+					for(int x=0;x<width;x++){
+						float dx = 0, dy = 0;
+						for(int t=0;t<APERTURE;t++){
+							int sx = rx[x+t];
+							dx += SOBEL_DERIVATIVE[t]*smooth[sx];
+							dy += SOBEL_SMOOTH[t]*deriv[sx];
+						}
+						dx *= scale;
+						dy *= scale;
+						int i = y*width + x;
+						xx[i] = dx*dx;
+						xy[i] = dx*dy;
+						yy[i] = dy*dy;
+					}
+				}
+			}
+		});
+
+		final float[] sxx = boxSum(xx, width, height, blockSize);
+		final float[] sxy = boxSum(xy, width, height, blockSize);
+		final float[] syy = boxSum(yy, width, height, blockSize);
+
+		final float[] response = new float[width*height];
+		ParallelRaster.forEachStrip(height, ParallelRaster.STRIP_ROWS, new ParallelRaster.StripKernel(){
+			public void run(int y0, int y1){
+				for(int i=y0*width;i<y1*width;i++){
+					float a = sxx[i], b = sxy[i], c = syy[i];
+					response[i] = (float)(a*c - b*b - k*(a+c)*(a+c));
+				}
+			}
+		});
+		return response;
+	}
+
+	/*
+	 * Unnormalized size x size box sum with reflect-101 borders; the window for pixel x covers
+	 * x - size/2 ... x - size/2 + size - 1.
+	 */
+	private static float[] boxSum(final float[] in, final int width, final int height, final int size){
+		final int anchor = size/2;
+		final int[] rx = reflectTable(width, size);
+		final int[] ry = reflectTable(height, size);
+		final float[] rows = new float[width*height];
+		final float[] out = new float[width*height];
+
+		ParallelRaster.forEachStrip(height, ParallelRaster.STRIP_ROWS, new ParallelRaster.StripKernel(){
+			public void run(int y0, int y1){
+				for(int y=y0;y<y1;y++){
+					int base = y*width;
+					for(int x=0;x<width;x++){
+						float sum = 0;
+						for(int t=0;t<size;t++){
+							sum += in[base + rx[x + size - anchor + t]];
+						}
+						rows[base + x] = sum;
+					}
+				}
+			}
+		});
+		ParallelRaster.forEachStrip(height, ParallelRaster.STRIP_ROWS, new ParallelRaster.StripKernel(){
+			public void run(int y0, int y1){
+				for(int y=y0;y<y1;y++){
+					for(int x=0;x<width;x++){
+						float sum = 0;
+						for(int t=0;t<size;t++){
+							sum += rows[ry[y + size - anchor + t]*width + x];
+						}
+						out[y*width + x] = sum;
+					}
+				}
+			}
+		});
+		return out;
+	}
+
+	/*
+	 * table[i + pad] is the reflect-101 index for i, for i in [-pad, n+pad).
+	 */
+	private static int[] reflectTable(int n, int pad){
+		int[] table = new int[n + 2*pad];
+		for(int i=-pad;i<n+pad;i++){
+			int j = i;
+			if (n == 1){
+				j = 0;
+			}else{
+				while(j < 0 || j >= n){
+					j = (j < 0)? -j : 2*(n-1) - j;
+				}
+			}
+			table[i + pad] = j;
+		}
+		return table;
+	}
+
+	/*
+	 * For each output pixel, the source pixels it covers and how much of each (summing to one).
+	 */
+	private static class AreaWeights {
+		final int[] start;
+		final int[] index;
+		final float[] weight;
+
+		AreaWeights(int srcSize, int dstSize){
+			double scale = (double)srcSize / dstSize;
+			int[] idx = new int[srcSize + 2*dstSize];
+			float[] w = new float[srcSize + 2*dstSize];
+			start = new int[dstSize + 1];
+
+			int n = 0;
+			for(int d=0;d<dstSize;d++){
+				start[d] = n;
+				double f0 = d*scale;
+				double f1 = Math.min(srcSize, (d+1)*scale);
+				for(int s=(int)f0;s<f1;s++){
+					double cover = Math.min(f1, s+1) - Math.max(f0, s);
+					if (cover <= 1e-9){continue;}
+					idx[n] = s;
+					w[n] = (float)(cover/scale);
+					n++;
+				}
+			}
+			start[dstSize] = n;
+			index = idx;
+			weight = w;
+		}
+	}
+}
@@ -0,0 +1,149 @@
+package vision;
+
+import java.awt.geom.Point2D;
+import java.awt.image.BufferedImage;
+
+/*
+ * Finds the exact position of a corner near a rough guess, looking only at a small window of
+ * the full resolution image around it: Harris response over the window (weighted towards the
+ * guess) to pick the corner, then the Forstner/cornerSubPix iteration to place it to a fraction
+ * of a pixel.
+ *
+ * A window of radius r costs O(r^2), so refining the four corners of a page found on the 200px
+ * thumbnail is a few milliseconds however large the page is.
+ */
+public class CornerRefiner {
+
+	/*
+	 * Search windows are clamped to this range of radii (in image pixels).
+	 */
+	public static final int MIN_RADIUS = 4;
+	public static final int MAX_RADIUS = 64;
+
+	/*
+	 * Half size of the structure tensor window.
+	 */
+	private static final int TENSOR_RADIUS = 2;
+
+	private static final double HARRIS_K = 0.04;
+
+	/*
+	 * Windows whose best response is below this (gray levels scaled to [0,1]) have no corner
+	 * in them, only flat areas or straight edges.
+	 */
+	private static final double MIN_RESPONSE = 1e-7;
+
+	private static final int SUBPIXEL_ITERATIONS = 8;
+	private static final double SUBPIXEL_EPSILON = 0.01;
+
+	/*
+	 * The corner nearest to (x, y) within radius pixels, to subpixel precision. If there is no
+	 * corner in that window the guess is returned unchanged.
+	 */
+	public static Point2D.Double refine(BufferedImage img, double x, double y, int radius){
+		radius = Math.max(MIN_RADIUS, Math.min(radius, MAX_RADIUS));
+		int pad = TENSOR_RADIUS + 1;
+
+		//window, plus what the gradients and tensor need around it, clipped to the image
+		int x0 = Math.max(0, (int)Math.round(x) - radius - pad);
+		int y0 = Math.max(0, (int)Math.round(y) - radius - pad);
+		int x1 = Math.min(img.getWidth(), (int)Math.round(x) + radius + pad + 1);
+		int y1 = Math.min(img.getHeight(), (int)Math.round(y) + radius + pad + 1);
+		int w = x1 - x0;
+		int h = y1 - y0;
+		if (w < 2*pad+1 || h < 2*pad+1){return new Point2D.Double(x, y);}
+
+		float[] gray = luma(img, x0, y0, w, h);
+		float[] gx = new float[w*h];
+		float[] gy = new float[w*h];
+		for(int yy=1;yy<h-1;yy++){
+			for(int xx=1;xx<w-1;xx++){
+				int i = yy*w + xx;
+				gx[i] = (gray[i+1] - gray[i-1]) * 0.5f;
+				gy[i] = (gray[i+w] - gray[i-w]) * 0.5f;
+			}
+		}
+
+		//strongest Harris response, favouring those close to the guess
+		double sigma2 = 2.0 * (radius/2.0) * (radius/2.0);
+		double bestScore = 0;
+		int bx = -1, by = -1;
+		for(int yy=pad;yy<h-pad;yy++){
+			for(int xx=pad;xx<w-pad;xx++){
+				double dx = x0 + xx - x;
+				double dy = y0 + yy - y;
+				if (dx*dx + dy*dy > radius*radius){continue;}
+
+				double sxx = 0, syy = 0, sxy = 0;
+				for(int ty=-TENSOR_RADIUS;ty<=TENSOR_RADIUS;ty++){
+					int row = (yy+ty)*w;
+					for(int tx=-TENSOR_RADIUS;tx<=TENSOR_RADIUS;tx++){
+						float a = gx[row + xx+tx];
+						float b = gy[row + xx+tx];
+						sxx += a*a;
+						syy += b*b;
+						sxy += a*b;
+					}
+				}
+				double response = sxx*syy - sxy*sxy - HARRIS_K*(sxx+syy)*(sxx+syy);
+				if (response < MIN_RESPONSE){continue;}
+
+				double score = response * Math.exp(-(dx*dx + dy*dy)/sigma2);
+				if (score > bestScore){
+					bestScore = score;
+					bx = xx;
+					by = yy;
+				}
+			}
+		}
+		if (bx < 0){return new Point2D.Double(x, y);}
+
+		//subpixel: the point q where every gradient in the window is orthogonal to (p - q)
+		double qx = bx, qy = by;
+		for(int it=0;it<SUBPIXEL_ITERATIONS;it++){
+			int cx = (int)Math.round(qx);
+			int cy = (int)Math.round(qy);
+			if (cx < pad || cy < pad || cx >= w-pad || cy >= h-pad){break;}
+
+			double a11 = 0, a12 = 0, a22 = 0, b1 = 0, b2 = 0;
+			for(int ty=-TENSOR_RADIUS;ty<=TENSOR_RADIUS;ty++){
+				for(int tx=-TENSOR_RADIUS;tx<=TENSOR_RADIUS;tx++){
+					int i = (cy+ty)*w + cx+tx;
+					double a = gx[i], b = gy[i];
+					a11 += a*a;
+					a12 += a*b;
+					a22 += b*b;
+					b1 += a*a*(cx+tx) + a*b*(cy+ty);
+					b2 += a*b*(cx+tx) + b*b*(cy+ty);
+				}
+			}
+			double det = a11*a22 - a12*a12;
+			if (det < 1e-12){break;}
+
+			double nx = (a22*b1 - a12*b2) / det;
+			double ny = (a11*b2 - a12*b1) / det;
+			if (Math.abs(nx - bx) > TENSOR_RADIUS || Math.abs(ny - by) > TENSOR_RADIUS){break;}
+
+			double moved = Math.abs(nx - qx) + Math.abs(ny - qy);
+			qx = nx;
+			qy = ny;
+			if (moved < SUBPIXEL_EPSILON){break;}
+		}
+
+		return new Point2D.Double(x0 + qx, y0 + qy);
+	}
+
+	/*
+	 * Gray levels in [0,1] of a w x h window of img at (x0, y0), from the luma every kernel
+	 * uses (see PixelKernels.gray).
+	 */
+	private static float[] luma(BufferedImage img, int x0, int y0, int w, int h){
+		BufferedImage window = ParallelRaster.threeByte(img.getSubimage(x0, y0, w, h));
+		byte[] levels = PixelKernels.gray(ParallelRaster.bytes(window), w, h, ParallelRaster.stride(window));
+		float[] gray = new float[w*h];
+		for(int i=0;i<levels.length;i++){
+			gray[i] = (levels[i]&0xff) / 255f;
+		}
+		return gray;
+	}
+}
@@ -0,0 +1,224 @@
+package vision;
+
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+
+import core.Corners;
+
+/*
+ * Pure-Java perspective warp. Computes the homography taking the output page back into the
+ * raw image and samples the raw bytes bilinearly, one tile of the output at a time.
+ */
+public class HomographyWarp {
+
+	/*
+	 * Side of the output tiles handed to the pool.
+	 */
+	private static final int TILE_SIZE = 128;
+
+	/*
+	 * Solve for the 3x3 homography (row-major, h[8] = 1) mapping each corner of from onto
+	 * the matching corner of to. Returns null if the corners are degenerate.
+	 */
+	public static double[] homography(Corners from, Corners to){
+		Point[] src = {from.upleft(), from.upright(), from.downleft(), from.downright()};
+		Point[] dst = {to.upleft(), to.upright(), to.downleft(), to.downright()};
+
+		double[][] a = new double[8][9];
+		for(int i=0;i<4;i++){
+			double x = src[i].x;
+			double y = src[i].y;
+			double u = dst[i].x;
+			double v = dst[i].y;
+
+			double[] r1 = a[2*i];
+			r1[0] = x; r1[1] = y; r1[2] = 1;
+			r1[6] = -u*x; r1[7] = -u*y; r1[8] = u;
+
+			double[] r2 = a[2*i+1];
+			r2[3] = x; r2[4] = y; r2[5] = 1;
+			r2[6] = -v*x; r2[7] = -v*y; r2[8] = v;
+		}
+
+		//gaussian elimination with partial pivoting
+		for(int col=0;col<8;col++){
+			int pivot = col;
+			for(int row=col+1;row<8;row++){
+				if (Math.abs(a[row][col]) > Math.abs(a[pivot][col])){pivot = row;}
+			}
+			if (Math.abs(a[pivot][col]) < 1e-12){return null;}
+
+			double[] t = a[col]; a[col] = a[pivot]; a[pivot] = t;
+
+			for(int row=0;row<8;row++){
+				if (row == col){continue;}
+				double f = a[row][col]/a[col][col];
+				if (f == 0){continue;}
+				for(int k=col;k<9;k++){
+					a[row][k] -= f*a[col][k];
+				}
+			}
+		}
+
+		double[] h = new double[9];
+		for(int i=0;i<8;i++){
+			h[i] = a[i][8]/a[i][i];
+		}
+		h[8] = 1;
+		return h;
+	}
+
+	/*
+	 * Warp the quadrilateral corners of img onto the rectangle reprojected (which should have its
+	 * top-left at the origin). Pixels which map outside of img are black.
+	 */
+	public static BufferedImage warp(BufferedImage img, Corners corners, Corners reprojected){
+		return warp(img, corners, reprojected, false, false);
+	}
+
+	/*
+	 * As warp(img, corners, reprojected), but of img flipped as given; the corners are in the
+	 * flipped image's coordinates. The flips are folded into the homography, so they cost
+	 * nothing.
+	 */
+	public static BufferedImage warp(BufferedImage img, Corners corners, Corners reprojected, boolean flipHorizontal, boolean flipVertical){
+		return warp(img, corners, reprojected, flipHorizontal, flipVertical, 0);
+	}
+
+	/*
+	 * As warp(img, corners, reprojected, flipHorizontal, flipVertical), with the output turned
+	 * clockwise by rotation degrees about its centre. The output is as big as reprojected, with
+	 * its sides swapped when the rotation is nearer a quarter or three quarter turn. The
+	 * rotation is folded into the homography too. Where a rotation which isn't a whole number of
+	 * quarter turns leaves the output's corners off the page, they are white like paper.
+	 */
+	public static BufferedImage warp(BufferedImage img, Corners corners, Corners reprojected, boolean flipHorizontal, boolean flipVertical, double rotation){
+		final BufferedImage source = ParallelRaster.threeByte(img);
+		final byte[] src = ParallelRaster.bytes(source);
+		final int srcStride = ParallelRaster.stride(source);
+		final int srcWidth = source.getWidth();
+		final int srcHeight = source.getHeight();
+
+		int width = Math.max(1, reprojected.width());
+		int height = Math.max(1, reprojected.height());
+
+		double[] solved = homography(reprojected, corners);
+		if (solved == null){
+			System.err.println("Degenerate corners given to HomographyWarp; leaving the image unwarped.");
+			solved = new double[]{1, 0, 0, 0, 1, 0, 0, 0, 1};
+			width = srcWidth;
+			height = srcHeight;
+		}
+		//a flip maps x to (w-1) - x, i.e. row 0 of h becomes (w-1)*row 2 - row 0
+		for(int i=0;i<3;i++){
+			if (flipHorizontal){solved[i] = (srcWidth-1)*solved[6+i] - solved[i];}
+			if (flipVertical){solved[3+i] = (srcHeight-1)*solved[6+i] - solved[3+i];}
+		}
+		int unrotatedWidth = width;
+		int unrotatedHeight = height;
+		if (Math.abs(Math.round(rotation/90)) % 2 == 1){
+			width = unrotatedHeight;
+			height = unrotatedWidth;
+		}
+		double[] turn = null;
+		if (rotation != 0){
+			turn = rotation(rotation, unrotatedWidth, unrotatedHeight, width, height);
+			solved = multiply(solved, turn);
+		}
+		final double[] h = solved;
+		//the output pixels a skew turns off the page, which are paper rather than background
+		final double[] skew = (rotation % 90 == 0)? null : turn;
+		final double maxX = unrotatedWidth - 0.5, maxY = unrotatedHeight - 0.5;
+
+		BufferedImage output = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+		final byte[] dst = ParallelRaster.bytes(output);
+		final int dstStride = ParallelRaster.stride(output);
+
+		ParallelRaster.forEachTile(width, height, TILE_SIZE, new ParallelRaster.TileKernel(){
+			public void run(int x0, int y0, int x1, int y1){
+				for(int y=y0;y<y1;y++){
+					//walk along the row incrementally in homogeneous coordinates
+					double nx = h[0]*x0 + h[1]*y + h[2];
+					double ny = h[3]*x0 + h[4]*y + h[5];
+					double nw = h[6]*x0 + h[7]*y + h[8];
+					int o = y*dstStride + x0*3;
+
+					for(int x=x0;x<x1;x++, o+=3, nx+=h[0], ny+=h[3], nw+=h[6]){
+						double sx = nx/nw;
+						double sy = ny/nw;
+
+						if (!(sx >= 0 && sy >= 0 && sx <= srcWidth-1 && sy <= srcHeight-1)){
+							byte fill = 0;
+							if (skew != null){
+								double ux = skew[0]*x + skew[1]*y + skew[2];
+								double uy = skew[3]*x + skew[4]*y + skew[5];
+								if (!(ux >= -0.5 && uy >= -0.5 && ux <= maxX && uy <= maxY)){fill = (byte)255;}
+							}
+							dst[o] = fill; dst[o+1] = fill; dst[o+2] = fill;
+							continue;
+						}
+
+						int ix = (int)sx;
+						int iy = (int)sy;
+						int fx = (int)((sx-ix)*256);
+						int fy = (int)((sy-iy)*256);
+						int dx = (ix < srcWidth-1)? 3:0;
+						int dy = (iy < srcHeight-1)? srcStride:0;
+
+						int p = iy*srcStride + ix*3;
+						for(int c=0;c<3;c++){
+							int tl = src[p+c]&0xff;
+							int tr = src[p+dx+c]&0xff;
+							int bl = src[p+dy+c]&0xff;
+							int br = src[p+dy+dx+c]&0xff;
+
+							int top = (tl<<8) + (tr-tl)*fx;
+							int bottom = (bl<<8) + (br-bl)*fx;
+							dst[o+c] = (byte)(((top<<8) + (bottom-top)*fy + (1<<15)) >> 16);
+						}
+					}
+				}
+			}
+		});
+
+		return output;
+	}
+
+	/*
+	 * The map taking each pixel of a rotatedWidth x rotatedHeight output back to where it was
+	 * in a width x height one before that was turned clockwise by degrees, centre onto centre.
+	 * Affine, so the bottom row is 0, 0, 1.
+	 */
+	private static double[] rotation(double degrees, int width, int height, int rotatedWidth, int rotatedHeight){
+		double cos, sin;
+		if (degrees % 90 == 0){
+			//exactly, so that quarter turns move whole pixels
+			int quarter = (int)(((degrees/90) % 4 + 4) % 4);
+			cos = (quarter == 0)? 1 : (quarter == 2)? -1 : 0;
+			sin = (quarter == 1)? 1 : (quarter == 3)? -1 : 0;
+		}else{
+			cos = Math.cos(Math.toRadians(degrees));
+			sin = Math.sin(Math.toRadians(degrees));
+		}
+		double cx = (width-1)/2.0, cy = (height-1)/2.0;
+		double rx = (rotatedWidth-1)/2.0, ry = (rotatedHeight-1)/2.0;
+		return new double[]{
+			cos, sin, cx - cos*rx - sin*ry,
+			-sin, cos, cy + sin*rx - cos*ry,
+			0, 0, 1
+		};
+	}
+
+	/*
+	 * The 3x3 product a times b (row-major).
+	 */
+	private static double[] multiply(double[] a, double[] b){
+		double[] out = new double[9];
+		for(int r=0;r<3;r++){
+			for(int c=0;c<3;c++){
+				out[3*r+c] = a[3*r]*b[c] + a[3*r+1]*b[3+c] + a[3*r+2]*b[6+c];
+			}
+		}
+		return out;
+	}
+}
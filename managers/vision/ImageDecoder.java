@@ -0,0 +1,106 @@
+package vision;
+
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/*
+ * Decodes only as much of an image file as is needed: its size from the header, a subsampled
+ * copy for detection and thumbnails, or a small full resolution region. None of these ever hold
+ * the full image in memory.
+ *
+ * Everything goes through ImageIO readers; when there's no reader for a file (or it fails) the
+ * methods throw and callers fall back on VisionManager.loadImage.
+ */
+public class ImageDecoder {
+
+	/*
+	 * Width and height of the image at path, read from its header.
+	 */
+	public static Dimension size(String path) throws IOException{
+		ImageInputStream in = open(path);
+		try {
+			ImageReader reader = reader(in, path);
+			try {
+				return new Dimension(reader.getWidth(0), reader.getHeight(0));
+			} finally {
+				reader.dispose();
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/*
+	 * The image at path, subsampled by the largest whole factor which still leaves its longest
+	 * side at least minSide pixels. Every subsample-th pixel is kept, so callers which care about
+	 * aliasing should ask for a couple of times what they need and area-resize the rest.
+	 */
+	public static BufferedImage decodeSubsampled(String path, int minSide) throws IOException{
+		ImageInputStream in = open(path);
+		try {
+			ImageReader reader = reader(in, path);
+			try {
+				int side = Math.max(reader.getWidth(0), reader.getHeight(0));
+				int factor = Math.max(1, side / Math.max(1, minSide));
+
+				ImageReadParam param = reader.getDefaultReadParam();
+				param.setSourceSubsampling(factor, factor, 0, 0);
+				return reader.read(0, param);
+			} finally {
+				reader.dispose();
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/*
+	 * The part of the image at path inside region (clipped to the image), at full resolution.
+	 * Returns null if the region is entirely outside the image.
+	 */
+	public static BufferedImage decodeRegion(String path, Rectangle region) throws IOException{
+		ImageInputStream in = open(path);
+		try {
+			ImageReader reader = reader(in, path);
+			try {
+				Rectangle clipped = region.intersection(new Rectangle(0, 0, reader.getWidth(0), reader.getHeight(0)));
+				if (clipped.isEmpty()){return null;}
+
+				ImageReadParam param = reader.getDefaultReadParam();
+				param.setSourceRegion(clipped);
+				return reader.read(0, param);
+			} finally {
+				reader.dispose();
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	private static ImageInputStream open(String path) throws IOException{
+		ImageInputStream in = ImageIO.createImageInputStream(new File(path));
+		if (in == null){
+			throw new IOException("Couldn't open " + path);
+		}
+		return in;
+	}
+
+	private static ImageReader reader(ImageInputStream in, String path) throws IOException{
+		Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+		if (!readers.hasNext()){
+			throw new IOException("No ImageIO reader for " + path);
+		}
+		ImageReader reader = readers.next();
+		reader.setInput(in, true, true);
+		return reader;
+	}
+}
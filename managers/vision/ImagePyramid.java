@@ -0,0 +1,102 @@
+package vision;
+
+import java.awt.image.BufferedImage;
+
+/*
+ * A mip pyramid over a raw image: level 0 is the image itself and every level after that
+ * is half the size of the one before it (2x2 box filter). Levels are built the first time
+ * they are asked for.
+ *
+ * Used for edit-mode previews, which only need as many pixels as end up on the screen.
+ */
+public class ImagePyramid {
+
+	/*
+	 * Don't build levels whose longest side would be shorter than this.
+	 */
+	private static final int MIN_SIDE = 64;
+
+	private final BufferedImage[] levels;
+
+	public ImagePyramid(BufferedImage base){
+		int count = 1;
+		int side = Math.max(base.getWidth(), base.getHeight());
+		while(side/2 >= MIN_SIDE){
+			side /= 2;
+			count++;
+		}
+		this.levels = new BufferedImage[count];
+		this.levels[0] = base;
+	}
+
+	public BufferedImage base(){
+		return levels[0];
+	}
+
+	public int levelCount(){
+		return levels.length;
+	}
+
+	/*
+	 * The image at the given level, building it (and any level above it) if needed.
+	 */
+	public synchronized BufferedImage level(int i){
+		i = Math.max(0, Math.min(i, levels.length-1));
+		if (levels[i] == null){
+			levels[i] = halve(level(i-1));
+		}
+		return levels[i];
+	}
+
+	/*
+	 * The smallest level which still has at least scale times the resolution of the base,
+	 * i.e. the level to draw from when displaying the base scaled by scale.
+	 */
+	public int levelForScale(double scale){
+		int i = 0;
+		double levelScale = 1;
+		while(i+1 < levels.length && levelScale/2 >= scale){
+			levelScale /= 2;
+			i++;
+		}
+		return i;
+	}
+
+	public BufferedImage forScale(double scale){
+		return level(levelForScale(scale));
+	}
+
+	/*
+	 * Downsample by two in each direction, averaging 2x2 blocks.
+	 */
+	private static BufferedImage halve(BufferedImage img){
+		BufferedImage source = ParallelRaster.threeByte(img);
+		final byte[] src = ParallelRaster.bytes(source);
+		final int srcStride = ParallelRaster.stride(source);
+
+		final int width = Math.max(1, source.getWidth()/2);
+		int height = Math.max(1, source.getHeight()/2);
+		final int dy = (source.getHeight() > 1)? srcStride:0;
+		final int dx = (source.getWidth() > 1)? 3:0;
+
+		BufferedImage output = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+		final byte[] dst = ParallelRaster.bytes(output);
+		final int dstStride = ParallelRaster.stride(output);
+
+		ParallelRaster.forEachStrip(height, ParallelRaster.STRIP_ROWS/2, new ParallelRaster.StripKernel(){
+			public void run(int y0, int y1){
+				for(int y=y0;y<y1;y++){
+					int s = 2*y*srcStride;
+					int o = y*dstStride;
+					for(int x=0;x<width;x++, o+=3, s+=6){
+						for(int c=0;c<3;c++){
+							dst[o+c] = (byte)(((src[s+c]&0xff) + (src[s+dx+c]&0xff) + (src[s+dy+c]&0xff) + (src[s+dy+dx+c]&0xff) + 2) >> 2);
+						}
+					}
+				}
+			}
+		});
+
+		return output;
+	}
+}
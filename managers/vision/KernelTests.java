@@ -0,0 +1,464 @@
+package vision;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import core.Corners;
+import core.SystemConfiguration;
+
+/*
+ * Checks for the pure-Java vision kernels, on small made up inputs whose right answers are known
+ * (or on the code each kernel replaced, where that's the reference). They take the Java paths
+ * only, so they run without OpenCV. Run from the project root:
+ *
+ *   java -cp bin/:libraries/jar/... vision.KernelTests
+ *
+ * Each group prints that it passed, or what went wrong; the exit status is the number of groups
+ * which failed.
+ */
+public class KernelTests {
+
+	private static int failed = 0;
+
+	private static void report(String name, boolean passed){
+		if (passed){
+			System.out.println(name + " tests passed!");
+		}else{
+			System.out.println(name + " tests FAILED");
+			failed++;
+		}
+	}
+
+	/*
+	 * Print a failure, for the checks to return.
+	 */
+	private static boolean fail(String message){
+		System.out.println("  " + message);
+		return false;
+	}
+
+	/*
+	 * A 3 byte image of seeded noise.
+	 */
+	private static BufferedImage noise(int width, int height, long seed){
+		BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+		new Random(seed).nextBytes(ParallelRaster.bytes(img));
+		return img;
+	}
+
+	private static Corners frame(int width, int height){
+		return new Corners(new Point(0,0), new Point(width,0), new Point(0,height), new Point(width,height));
+	}
+
+	/*
+	 * The FFT field against the direct sum it replaced, and a lone response whose field is 1/r.
+	 */
+	private static boolean warpField(){
+		int width = 37, height = 23;
+		float[] response = new float[width*height];
+		Random random = new Random(1);
+		for(int i=0;i<40;i++){
+			response[random.nextInt(response.length)] = random.nextFloat()*2 - 1;
+		}
+		float[] exact = WarpField.computeExact(response, width, height);
+		float[] fast = WarpField.compute(response, width, height, false);
+		float largest = 0, error = 0;
+		for(int i=0;i<exact.length;i++){
+			largest = Math.max(largest, Math.abs(exact[i]));
+			error = Math.max(error, Math.abs(exact[i] - fast[i]));
+		}
+		if (error > 1e-4*largest){return fail("FFT field is off the direct sum by " + error + " (largest value " + largest + ")");}
+
+		float[] impulse = new float[20*20];
+		impulse[10*20 + 10] = 1;
+		float[] field = WarpField.compute(impulse, 20, 20, false);
+		if (Math.abs(field[14*20 + 13] - 0.2f) > 1e-5){return fail("field 5 pixels from a unit response is " + field[14*20 + 13] + ", not 0.2");}
+		if (Math.abs(field[10*20 + 10]) > 1e-5){return fail("a response adds " + field[10*20 + 10] + " to its own pixel");}
+		return true;
+	}
+
+	/*
+	 * The homography is the one which takes each corner exactly where it's asked to (the only
+	 * one there is, so the one cvGetPerspectiveTransform gives), and warps which only move whole
+	 * pixels around copy them exactly, as cvWarpPerspective does.
+	 */
+	private static boolean homographyWarp(){
+		Corners from = new Corners(new Point(0,0), new Point(120,0), new Point(0,80), new Point(120,80));
+		Corners to = new Corners(new Point(13,7), new Point(140,22), new Point(4,95), new Point(151,88));
+		double[] h = HomographyWarp.homography(from, to);
+		Point[] src = {from.upleft(), from.upright(), from.downleft(), from.downright()};
+		Point[] dst = {to.upleft(), to.upright(), to.downleft(), to.downright()};
+		for(int i=0;i<4;i++){
+			double w = h[6]*src[i].x + h[7]*src[i].y + h[8];
+			double u = (h[0]*src[i].x + h[1]*src[i].y + h[2])/w;
+			double v = (h[3]*src[i].x + h[4]*src[i].y + h[5])/w;
+			if (Math.abs(u - dst[i].x) > 1e-9 || Math.abs(v - dst[i].y) > 1e-9){
+				return fail("homography takes " + src[i] + " to (" + u + ", " + v + "), not " + dst[i]);
+			}
+		}
+		if (HomographyWarp.homography(from, new Corners(new Point(0,0), new Point(1,1), new Point(2,2), new Point(3,3))) != null){
+			return fail("collinear corners gave a homography");
+		}
+
+		int width = 61, height = 43;
+		BufferedImage img = noise(width, height, 2);
+
+		//a crop
+		Corners crop = new Corners(new Point(5,9), new Point(45,9), new Point(5,39), new Point(45,39));
+		BufferedImage cropped = HomographyWarp.warp(img, crop, frame(40, 30));
+		for(int y=0;y<30;y++){
+			for(int x=0;x<40;x++){
+				if (cropped.getRGB(x, y) != img.getRGB(x+5, y+9)){return fail("crop differs at " + x + "," + y);}
+			}
+		}
+
+		//flips, and a quarter turn clockwise
+		BufferedImage flipped = HomographyWarp.warp(img, frame(width, height), frame(width, height), true, true);
+		BufferedImage turned = HomographyWarp.warp(img, frame(width, height), frame(width, height), false, false, 90);
+		if (turned.getWidth() != height || turned.getHeight() != width){return fail("quarter turn is " + turned.getWidth() + "x" + turned.getHeight());}
+		for(int y=0;y<height;y++){
+			for(int x=0;x<width;x++){
+				if (flipped.getRGB(x, y) != img.getRGB(width-1-x, height-1-y)){return fail("flip differs at " + x + "," + y);}
+				if (turned.getRGB(height-1-y, x) != img.getRGB(x, y)){return fail("quarter turn moved " + x + "," + y + " elsewhere");}
+			}
+		}
+
+		//a slight turn leaves the centre where it was, and the corners it uncovers white
+		BufferedImage skewed = HomographyWarp.warp(img, frame(width, height), frame(width, height), false, false, 5);
+		if (skewed.getRGB(width/2, height/2) != img.getRGB(width/2, height/2)){return fail("a 5 degree turn moved the centre");}
+		for(Point p: new Point[]{new Point(0,0), new Point(width-1,0), new Point(0,height-1), new Point(width-1,height-1)}){
+			if ((skewed.getRGB(p.x, p.y)&0xffffff) != 0xffffff){return fail("a 5 degree turn left " + p + " unfilled");}
+		}
+		return true;
+	}
+
+	/*
+	 * Dark squares on a background going from dark to light gray: every square is black and all
+	 * the background white, which no single threshold gets right.
+	 */
+	private static boolean adaptiveThreshold(){
+		int width = 240, height = 80;
+		byte[] gray = new byte[width*height];
+		for(int y=0;y<height;y++){
+			for(int x=0;x<width;x++){
+				int background = 70 + x*180/width;
+				boolean square = (x % 30) >= 10 && (x % 30) < 18 && (y % 30) >= 10 && (y % 30) < 18;
+				gray[y*width + x] = (byte)(square? background*2/5 : background);
+			}
+		}
+		byte[] levels = AdaptiveThreshold.threshold(gray, width, height, 15, AdaptiveThreshold.K);
+		for(int y=0;y<height;y++){
+			for(int x=0;x<width;x++){
+				int u = x % 30, v = y % 30;
+				boolean square = u >= 10 && u < 18 && v >= 10 && v < 18;
+				boolean clear = u < 8 || u >= 20 || v < 8 || v >= 20;
+				int level = levels[y*width + x]&0xff;
+				if (square && level != 0){return fail("square pixel " + x + "," + y + " is white");}
+				if (clear && level != 255){return fail("background pixel " + x + "," + y + " is black");}
+			}
+		}
+		return true;
+	}
+
+	/*
+	 * Noise on either side of a step: smoothed away on both sides, without the sides mixing.
+	 */
+	private static boolean bilateralGrid(){
+		int width = 96, height = 64;
+		BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+		byte[] data = ParallelRaster.bytes(img);
+		int stride = ParallelRaster.stride(img);
+		Random random = new Random(3);
+		for(int y=0;y<height;y++){
+			for(int x=0;x<width;x++){
+				int v = ((x < width/2)? 60 : 200) + random.nextInt(21) - 10;
+				Arrays.fill(data, y*stride + 3*x, y*stride + 3*x + 3, (byte)v);
+			}
+		}
+		double before = stepDeviation(data, width, height, stride);
+		BilateralGrid.filter(data, width, height, stride);
+		double after = stepDeviation(data, width, height, stride);
+		if (after > before/2){return fail("noise only went from " + before + " to " + after);}
+		for(int y=0;y<height;y++){
+			for(int x=0;x<width;x++){
+				int clean = (x < width/2)? 60 : 200;
+				int v = data[y*stride + 3*x]&0xff;
+				if (Math.abs(v - clean) > 20){return fail("pixel " + x + "," + y + " went to " + v + " next to " + clean);}
+			}
+		}
+		return true;
+	}
+
+	/*
+	 * Root mean square difference of channel 0 from the 60/200 step.
+	 */
+	private static double stepDeviation(byte[] data, int width, int height, int stride){
+		double sum = 0;
+		for(int y=0;y<height;y++){
+			for(int x=0;x<width;x++){
+				int d = (data[y*stride + 3*x]&0xff) - ((x < width/2)? 60 : 200);
+				sum += d*d;
+			}
+		}
+		return Math.sqrt(sum/(width*height));
+	}
+
+	/*
+	 * Faint texture (16 levels of luma) comes out with at least twice the contrast, which a clip
+	 * limit of 3 allows, and the colors' differences as they were; a flat image stays flat.
+	 */
+	private static boolean clahe(){
+		int width = 128, height = 128;
+		BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+		byte[] data = ParallelRaster.bytes(img);
+		int stride = ParallelRaster.stride(img);
+		Random random = new Random(4);
+		for(int y=0;y<height;y++){
+			for(int x=0;x<width;x++){
+				int o = y*stride + 3*x;
+				int v = 120 + random.nextInt(16);
+				data[o] = (byte)(v+12);
+				data[o+1] = (byte)v;
+				data[o+2] = (byte)(v-12);
+			}
+		}
+		Clahe.equalize(data, width, height, stride);
+		int low = 255, high = 0;
+		for(int y=0;y<height;y++){
+			for(int x=0;x<width;x++){
+				int o = y*stride + 3*x;
+				int c0 = data[o]&0xff, c1 = data[o+1]&0xff, c2 = data[o+2]&0xff;
+				if (c2 > 0 && c0 < 255 && (c0 - c1 != 12 || c1 - c2 != 12)){return fail("pixel " + x + "," + y + " changed color");}
+				low = Math.min(low, c1);
+				high = Math.max(high, c1);
+			}
+		}
+		if (high - low < 2*16){return fail("a range of 16 only grew to " + (high - low));}
+
+		BufferedImage flat = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+		byte[] flatData = ParallelRaster.bytes(flat);
+		Arrays.fill(flatData, (byte)140);
+		Clahe.equalize(flatData, width, height, ParallelRaster.stride(flat));
+		for(int i=0;i<flatData.length;i++){
+			if (flatData[i] != flatData[0]){return fail("a flat image came out uneven at byte " + i);}
+		}
+		return true;
+	}
+
+	/*
+	 * The peaks of a field of three bumps, against the points the old hill climb settled on.
+	 */
+	private static boolean peakFinder(){
+		int width = 90, height = 70;
+		int[][] bumps = {{20, 15, 3}, {70, 20, 5}, {40, 55, 4}};
+		float[] field = new float[width*height];
+		for(int y=0;y<height;y++){
+			for(int x=0;x<width;x++){
+				for(int[] b: bumps){
+					field[y*width + x] += b[2]*Math.exp(-((x-b[0])*(x-b[0]) + (y-b[1])*(y-b[1]))/72.0);
+				}
+			}
+		}
+
+		List<MergeZone> peaks = PeakFinder.findPeaks(field, width, height);
+		List<Point> climbed = hillClimb(field, width, height);
+		if (peaks.size() != climbed.size()){return fail(peaks.size() + " peaks, but the hill climb found " + climbed.size());}
+		for(MergeZone peak: peaks){
+			if (!climbed.contains(peak.point)){return fail("peak " + peak.point + " wasn't found by the hill climb");}
+		}
+		//strongest first: the bumps by height
+		int[] order = {1, 2, 0};
+		for(int i=0;i<order.length;i++){
+			Point expected = new Point(bumps[order[i]][0], bumps[order[i]][1]);
+			if (!peaks.get(i).point.equals(expected)){return fail("peak " + i + " is " + peaks.get(i).point + ", not " + expected);}
+		}
+		return true;
+	}
+
+	/*
+	 * The corner candidates as findPotentialZones used to find them: start on a 5 pixel grid,
+	 * move every point up the field until none moves, and merge points which end up within 5
+	 * pixels of each other.
+	 */
+	private static List<Point> hillClimb(float[] field, int width, int height){
+		ArrayList<Point> points = new ArrayList<Point>();
+		for(int x=0;x<width;x+=5){
+			for(int y=0;y<height;y+=5){
+				points.add(new Point(x,y));
+			}
+		}
+
+		int round = 0;
+		int lastStillRound = 0;
+		while(round-lastStillRound < 5 && round < 500){
+			double motion = 0;
+			for(Point p: points){
+				float current = field[p.y*width + p.x];
+				Point best = p;
+				for(int sx=-1;sx<=1;sx++){
+					for(int sy=-1;sy<=1;sy++){
+						if ((sx==0&&sy==0) || p.x+sx < 0 || p.y+sy < 0 || p.x+sx >= width || p.y+sy >= height){continue;}
+						if (field[(p.y+sy)*width + p.x+sx] > current){
+							best = new Point(p.x+sx, p.y+sy);
+						}
+					}
+				}
+				motion += p.distance(best);
+				p.x = best.x;
+				p.y = best.y;
+			}
+			if (motion >= 1){
+				lastStillRound = round;
+			}
+			round++;
+		}
+
+		ArrayList<Point> merged = new ArrayList<Point>();
+		for(Point p: points){
+			boolean alreadyInserted = false;
+			for(Point q: merged){
+				if (q.distance(p) < 5){
+					alreadyInserted = true;
+					break;
+				}
+			}
+			if (!alreadyInserted){
+				merged.add(p);
+			}
+		}
+		return merged;
+	}
+
+	/*
+	 * A rectangle hidden among points which make no better quad, and points which make none.
+	 */
+	private static boolean quadSearch(){
+		Point[] rectangle = {new Point(10,10), new Point(90,10), new Point(90,70), new Point(10,70)};
+		Point[] others = {new Point(50,40), new Point(70,22), new Point(31,57), new Point(97,45), new Point(48,3)};
+		List<MergeZone> zones = new ArrayList<MergeZone>();
+		for(int i=0;i<rectangle.length;i++){
+			zones.add(new MergeZone(others[i]));
+			zones.add(new MergeZone(rectangle[i]));
+		}
+		zones.add(new MergeZone(others[4]));
+
+		List<MergeZone> quad = QuadSearch.bestQuad(zones);
+		if (quad == null){return fail("no quad among " + zones.size() + " zones");}
+		Set<Point> found = new HashSet<Point>();
+		for(MergeZone zone: quad){
+			found.add(zone.point);
+		}
+		if (!found.equals(new HashSet<Point>(Arrays.asList(rectangle)))){return fail("best quad is " + found + ", not the rectangle");}
+
+		List<MergeZone> triangle = new ArrayList<MergeZone>();
+		for(Point p: new Point[]{new Point(0,0), new Point(100,0), new Point(50,80), new Point(50,30)}){
+			triangle.add(new MergeZone(p));
+		}
+		if (QuadSearch.bestQuad(triangle) != null){return fail("a triangle with a point inside made a quad");}
+		return true;
+	}
+
+	/*
+	 * Components of a U which only joins up at the bottom, across a labelling strip boundary, a
+	 * diagonal line, and a speck; and the speck gone after despeckle().
+	 */
+	private static boolean bitonalImage(){
+		int width = 50, height = 100;
+		byte[] levels = new byte[width*height];
+		Arrays.fill(levels, (byte)255);
+		fillBlack(levels, width, 5, 40, 4, 40);		//left arm of the U, over the strip boundary at row 64
+		fillBlack(levels, width, 15, 40, 4, 40);	//right arm
+		fillBlack(levels, width, 5, 80, 14, 3);		//bottom
+		for(int i=0;i<10;i++){
+			fillBlack(levels, width, 30+i, 5+i, 1, 1);	//touching only at the corners
+		}
+		fillBlack(levels, width, 40, 90, 2, 2);
+
+		BitonalImage bitonal = BitonalImage.fromLevels(levels, width, height);
+		if (bitonal.blackPixels() != 4*40*2 + 14*3 + 10 + 4){return fail(bitonal.blackPixels() + " black pixels");}
+		List<BitonalImage.Component> components = bitonal.components();
+		Rectangle[] bounds = {new Rectangle(30,5,10,10), new Rectangle(5,40,14,43), new Rectangle(40,90,2,2)};
+		int[] areas = {10, 4*40*2 + 14*3, 4};
+		if (components.size() != bounds.length){return fail(components.size() + " components, not " + bounds.length);}
+		for(int i=0;i<bounds.length;i++){
+			if (!components.get(i).bounds().equals(bounds[i]) || components.get(i).area() != areas[i]){
+				return fail("component " + i + " is " + components.get(i).bounds() + " of " + components.get(i).area() + ", not " + bounds[i] + " of " + areas[i]);
+			}
+		}
+
+		if (bitonal.despeckle().components().size() != 2){return fail("despeckle() kept the speck");}
+		if (bitonal.despeckle(10).components().size() != 1){return fail("despeckle(10) kept the diagonal");}
+		return true;
+	}
+
+	private static void fillBlack(byte[] levels, int width, int x, int y, int w, int h){
+		for(int j=y;j<y+h;j++){
+			Arrays.fill(levels, j*width + x, j*width + x + w, (byte)0);
+		}
+	}
+
+	/*
+	 * Keys are the same for the same render and differ for anything which changes it.
+	 */
+	private static boolean renderCacheKeys() throws IOException, InvalidTypingException{
+		File raw = File.createTempFile("camscan-key", ".jpg");
+		raw.deleteOnExit();
+		writeBytes(raw, 100);
+
+		Corners corners = frame(40, 30);
+		ConfigurationDictionary config = new ConfigurationDictionary();
+		config.setKey(new ConfigurationValue(ConfigurationValue.ValueType.ColorTemperature, 10));
+		config.setKey(new ConfigurationValue(ConfigurationValue.ValueType.Binarize, true));
+		ConfigurationDictionary reordered = new ConfigurationDictionary();
+		reordered.setKey(new ConfigurationValue(ConfigurationValue.ValueType.Binarize, true));
+		reordered.setKey(new ConfigurationValue(ConfigurationValue.ValueType.ColorTemperature, 10));
+		ConfigurationDictionary warmer = config.getCopy();
+		warmer.setKey(new ConfigurationValue(ConfigurationValue.ValueType.ColorTemperature, 11));
+
+		String key = RenderCache.key(raw.getPath(), corners, config);
+		if (!key.equals(RenderCache.key(raw.getPath(), frame(40, 30), reordered))){return fail("the same render got different keys");}
+		if (key.equals(RenderCache.key(raw.getPath(), frame(40, 31), config))){return fail("moving a corner kept the key");}
+		if (key.equals(RenderCache.key(raw.getPath(), corners, warmer))){return fail("changing the temperature kept the key");}
+		if (key.equals(RenderCache.key(raw.getPath(), corners, null))){return fail("dropping the configuration kept the key");}
+
+		writeBytes(raw, 101);
+		if (key.equals(RenderCache.key(raw.getPath(), corners, config))){return fail("replacing the raw file kept the key");}
+		raw.delete();
+		return true;
+	}
+
+	private static void writeBytes(File file, int count) throws IOException{
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(new byte[count]);
+		} finally {
+			out.close();
+		}
+	}
+
+	public static void main(String[] args) throws IOException, InvalidTypingException{
+		SystemConfiguration.OPENCV_ENABLED = false;
+
+		report("WarpField", warpField());
+		report("HomographyWarp", homographyWarp());
+		report("AdaptiveThreshold", adaptiveThreshold());
+		report("BilateralGrid", bilateralGrid());
+		report("Clahe", clahe());
+		report("PeakFinder", peakFinder());
+		report("QuadSearch", quadSearch());
+		report("BitonalImage", bitonalImage());
+		report("RenderCache key", renderCacheKeys());
+
+		System.exit(failed);
+	}
+}
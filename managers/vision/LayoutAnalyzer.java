@@ -0,0 +1,234 @@
+package vision;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/*
+ * Finds the blocks of text on a black and white page (see BitonalImage), in reading order.
+ *
+ * The page's connected components are the characters (or pieces of them). Components which
+ * overlap vertically and follow each other closely along a row make a line; lines which overlap
+ * horizontally and follow each other closely down the page make a block. Every distance is a
+ * multiple of the median character height, so the same settings work at any resolution.
+ *
+ * Blocks are put in reading order as Breuel orders text lines: a block comes before another
+ * below it which it overlaps horizontally, and before another to its right unless something
+ * between them vertically spans both (a heading across two columns, say). Sorting the blocks
+ * topologically by that, top first where it leaves a choice, reads down each column in turn.
+ *
+ * All rectangles are in the pixels of the page given, i.e. of the processed image.
+ */
+public class LayoutAnalyzer {
+
+	/*
+	 * Largest horizontal gap within a line, in heights of the characters either side, and
+	 * vertical gap within a block, in median character heights.
+	 */
+	public static final double WORD_GAP = 1.5;
+	public static final double LINE_GAP = 1.2;
+
+	/*
+	 * Components smaller than this many pixels are noise; components wider or taller than this
+	 * share of the page are pictures, rules or the dark border around the paper.
+	 */
+	private static final int MIN_AREA = 3;
+	private static final double MAX_SHARE = 0.25;
+
+	private static final Comparator<Rectangle> BY_LEFT = new Comparator<Rectangle>(){
+		public int compare(Rectangle a, Rectangle b){
+			return (a.x != b.x)? Integer.compare(a.x, b.x) : Integer.compare(a.y, b.y);
+		}
+	};
+
+	private static final Comparator<Rectangle> BY_TOP = new Comparator<Rectangle>(){
+		public int compare(Rectangle a, Rectangle b){
+			return (a.y != b.y)? Integer.compare(a.y, b.y) : Integer.compare(a.x, b.x);
+		}
+	};
+
+	/*
+	 * The text blocks of the page in reading order. Empty for a blank page.
+	 */
+	public static List<Rectangle> blocks(BitonalImage page){
+		List<Rectangle> glyphs = glyphs(page);
+		if (glyphs.isEmpty()){return new ArrayList<Rectangle>();}
+		int size = medianHeight(glyphs);
+
+		return readingOrder(groupBlocks(groupLines(glyphs, size), size));
+	}
+
+	/*
+	 * The text lines of the page, ordered by their tops.
+	 */
+	public static List<Rectangle> lines(BitonalImage page){
+		List<Rectangle> glyphs = glyphs(page);
+		if (glyphs.isEmpty()){return new ArrayList<Rectangle>();}
+		List<Rectangle> lines = groupLines(glyphs, medianHeight(glyphs));
+		Collections.sort(lines, BY_TOP);
+		return lines;
+	}
+
+	/*
+	 * Bounds of the components which could be text.
+	 */
+	private static List<Rectangle> glyphs(BitonalImage page){
+		int maxWidth = (int)(page.width()*MAX_SHARE);
+		int maxHeight = (int)(page.height()*MAX_SHARE);
+
+		List<Rectangle> glyphs = new ArrayList<Rectangle>();
+		for(BitonalImage.Component c: page.components()){
+			Rectangle r = c.bounds();
+			if (c.area() >= MIN_AREA && r.width <= maxWidth && r.height <= maxHeight){
+				glyphs.add(r);
+			}
+		}
+		return glyphs;
+	}
+
+	private static int medianHeight(List<Rectangle> glyphs){
+		int[] heights = new int[glyphs.size()];
+		for(int i=0;i<heights.length;i++){
+			heights[i] = glyphs.get(i).height;
+		}
+		Arrays.sort(heights);
+		return Math.max(1, heights[heights.length/2]);
+	}
+
+	/*
+	 * Sweep the glyphs left to right, adding each to the open line it overlaps most vertically
+	 * if that line ends close enough to its left.
+	 */
+	private static List<Rectangle> groupLines(List<Rectangle> glyphs, int size){
+		List<Rectangle> sorted = new ArrayList<Rectangle>(glyphs);
+		Collections.sort(sorted, BY_LEFT);
+		List<Rectangle> lines = new ArrayList<Rectangle>();
+		for(Rectangle g: sorted){
+			Rectangle best = null;
+			int bestOverlap = 0;
+			for(Rectangle line: lines){
+				//headings space their words further apart than body text
+				int gap = (int)(WORD_GAP*Math.max(size, Math.min(g.height, line.height)));
+				if (g.x - (line.x + line.width) > gap){continue;}
+				int overlap = Math.min(g.y + g.height, line.y + line.height) - Math.max(g.y, line.y);
+				if (2*overlap >= Math.min(g.height, line.height) && overlap > bestOverlap){
+					best = line;
+					bestOverlap = overlap;
+				}
+			}
+			if (best == null){
+				lines.add(new Rectangle(g));
+			}else{
+				best.add(g);
+			}
+		}
+		return lines;
+	}
+
+	/*
+	 * Sweep the lines top to bottom, adding each to the block it overlaps horizontally whose
+	 * bottom is closest above it, if that is close enough. Blocks which end up overlapping are
+	 * merged.
+	 */
+	private static List<Rectangle> groupBlocks(List<Rectangle> lines, int size){
+		List<Rectangle> sorted = new ArrayList<Rectangle>(lines);
+		Collections.sort(sorted, BY_TOP);
+		int gap = (int)(LINE_GAP*size);
+
+		List<Rectangle> blocks = new ArrayList<Rectangle>();
+		for(Rectangle line: sorted){
+			Rectangle best = null;
+			for(Rectangle block: blocks){
+				int below = line.y - (block.y + block.height);
+				if (overlapsAcross(line, block) && below <= gap && (best == null || block.y + block.height > best.y + best.height)){
+					best = block;
+				}
+			}
+			if (best == null){
+				blocks.add(new Rectangle(line));
+			}else{
+				best.add(line);
+			}
+		}
+
+		//growing a block can make it overlap another
+		boolean merged = true;
+		while(merged){
+			merged = false;
+			for(int i=0;i<blocks.size() && !merged;i++){
+				for(int j=i+1;j<blocks.size();j++){
+					if (blocks.get(i).intersects(blocks.get(j))){
+						blocks.get(i).add(blocks.remove(j));
+						merged = true;
+						break;
+					}
+				}
+			}
+		}
+		return blocks;
+	}
+
+	/*
+	 * The blocks sorted topologically by comesBefore, taking the topmost (then leftmost) of the
+	 * blocks which are free to go next.
+	 */
+	private static List<Rectangle> readingOrder(List<Rectangle> blocks){
+		int n = blocks.size();
+		List<Rectangle> sorted = new ArrayList<Rectangle>(blocks);
+		Collections.sort(sorted, BY_TOP);
+
+		int[] waiting = new int[n];
+		for(int a=0;a<n;a++){
+			for(int b=0;b<n;b++){
+				if (a != b && comesBefore(sorted.get(a), sorted.get(b), sorted)){waiting[b]++;}
+			}
+		}
+
+		List<Rectangle> ordered = new ArrayList<Rectangle>(n);
+		boolean[] placed = new boolean[n];
+		while(ordered.size() < n){
+			//sorted is top first, so the first free block is the one to take; a cycle can only
+			//come from overlapping blocks, and is broken by taking the topmost
+			int next = -1;
+			for(int i=0;i<n && next < 0;i++){
+				if (!placed[i] && waiting[i] == 0){next = i;}
+			}
+			for(int i=0;i<n && next < 0;i++){
+				if (!placed[i]){next = i;}
+			}
+
+			placed[next] = true;
+			ordered.add(sorted.get(next));
+			for(int b=0;b<n;b++){
+				if (!placed[b] && comesBefore(sorted.get(next), sorted.get(b), sorted)){waiting[b]--;}
+			}
+		}
+		return ordered;
+	}
+
+	/*
+	 * Whether a is read before b: a is above b and overlaps it horizontally, or a is left of b
+	 * and no block between them vertically overlaps both horizontally.
+	 */
+	private static boolean comesBefore(Rectangle a, Rectangle b, List<Rectangle> blocks){
+		if (overlapsAcross(a, b)){
+			return a.y + a.height/2 < b.y + b.height/2;
+		}
+		if (a.x + a.width > b.x){return false;}
+
+		int top = Math.min(a.y, b.y);
+		int bottom = Math.max(a.y, b.y);
+		for(Rectangle c: blocks){
+			if (c == a || c == b){continue;}
+			if (c.y > top && c.y < bottom && overlapsAcross(c, a) && overlapsAcross(c, b)){return false;}
+		}
+		return true;
+	}
+
+	private static boolean overlapsAcross(Rectangle a, Rectangle b){
+		return a.x < b.x + b.width && b.x < a.x + a.width;
+	}
+}
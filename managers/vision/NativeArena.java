@@ -0,0 +1,227 @@
+package vision;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+
+import static com.googlecode.javacv.cpp.opencv_core.*;
+
+/*
+ * Scoped allocation of native OpenCV images and matrices. Everything created through an arena
+ * is handed back when the arena is closed, normally in a finally block at the end of a vision
+ * call:
+ *
+ *   NativeArena arena = NativeArena.open();
+ *   try {
+ *       IplImage gray = arena.createImage(w, h, IPL_DEPTH_8U, 1);
+ *       ...
+ *   } finally {
+ *       arena.close();
+ *   }
+ *
+ * Handed back buffers go into a pool shared by all arenas and are reused by later requests of
+ * the same size, depth and channels. The pool is bounded; anything beyond it is released.
+ * Since the JVM heap limit doesn't apply to native memory, liveBytes() reports how much of it
+ * arenas are holding.
+ */
+public class NativeArena {
+
+	/*
+	 * Max bytes of idle buffers to keep pooled.
+	 */
+	private static final long POOL_LIMIT = 64L * 1024 * 1024;
+
+	private static final HashMap<String, LinkedList<IplImage>> freeImages = new HashMap<String, LinkedList<IplImage>>();
+	private static final HashMap<String, LinkedList<CvMat>> freeMats = new HashMap<String, LinkedList<CvMat>>();
+
+	//bytes allocated and not yet released, in use or pooled
+	private static long liveBytes = 0;
+	private static long pooledBytes = 0;
+
+	private final ArrayList<IplImage> images;
+	private final ArrayList<CvMat> mats;
+	private boolean closed;
+
+	private NativeArena(){
+		this.images = new ArrayList<IplImage>();
+		this.mats = new ArrayList<CvMat>();
+		this.closed = false;
+	}
+
+	public static NativeArena open(){
+		return new NativeArena();
+	}
+
+	/*
+	 * An image owned by this arena. Contents are undefined, as with cvCreateImage.
+	 */
+	public IplImage createImage(int width, int height, int depth, int channels){
+		checkOpen();
+		String key = imageKey(width, height, depth, channels);
+		IplImage img = null;
+
+		synchronized(NativeArena.class){
+			LinkedList<IplImage> free = freeImages.get(key);
+			if (free != null && !free.isEmpty()){
+				img = free.removeFirst();
+				pooledBytes -= img.imageSize();
+			}
+		}
+
+		if (img == null){
+			img = cvCreateImage(cvSize(width, height), depth, channels);
+			synchronized(NativeArena.class){
+				liveBytes += img.imageSize();
+			}
+		}
+
+		images.add(img);
+		return img;
+	}
+
+	/*
+	 * A copy of src owned by this arena.
+	 */
+	public IplImage cloneImage(IplImage src){
+		IplImage img = createImage(src.width(), src.height(), src.depth(), src.nChannels());
+		cvCopy(src, img);
+		return img;
+	}
+
+	/*
+	 * Take ownership of an image allocated elsewhere (cvLoadImage, ...) so
+	 * that it is released or pooled along with the rest of the arena.
+	 */
+	public IplImage adopt(IplImage img){
+		checkOpen();
+		if (img == null){return null;}
+		synchronized(NativeArena.class){
+			liveBytes += img.imageSize();
+		}
+		images.add(img);
+		return img;
+	}
+
+	/*
+	 * A matrix owned by this arena.
+	 */
+	public CvMat createMat(int rows, int cols, int type){
+		checkOpen();
+		String key = rows + "x" + cols + ":" + type;
+		CvMat mat = null;
+
+		synchronized(NativeArena.class){
+			LinkedList<CvMat> free = freeMats.get(key);
+			if (free != null && !free.isEmpty()){
+				mat = free.removeFirst();
+				pooledBytes -= matSize(mat);
+			}
+		}
+
+		if (mat == null){
+			mat = cvCreateMat(rows, cols, type);
+			synchronized(NativeArena.class){
+				liveBytes += matSize(mat);
+			}
+		}
+
+		mats.add(mat);
+		return mat;
+	}
+
+	/*
+	 * Hand every image and matrix back. Anything still referenced must not be used afterwards.
+	 */
+	public void close(){
+		if (closed){return;}
+		closed = true;
+
+		synchronized(NativeArena.class){
+			for(IplImage img: images){
+				long size = img.imageSize();
+				if (pooledBytes + size <= POOL_LIMIT){
+					String key = imageKey(img.width(), img.height(), img.depth(), img.nChannels());
+					LinkedList<IplImage> free = freeImages.get(key);
+					if (free == null){
+						free = new LinkedList<IplImage>();
+						freeImages.put(key, free);
+					}
+					free.add(img);
+					pooledBytes += size;
+				}else{
+					cvReleaseImage(img);
+					liveBytes -= size;
+				}
+			}
+
+			for(CvMat mat: mats){
+				long size = matSize(mat);
+				if (pooledBytes + size <= POOL_LIMIT){
+					String key = mat.rows() + "x" + mat.cols() + ":" + mat.type();
+					LinkedList<CvMat> free = freeMats.get(key);
+					if (free == null){
+						free = new LinkedList<CvMat>();
+						freeMats.put(key, free);
+					}
+					free.add(mat);
+					pooledBytes += size;
+				}else{
+					cvReleaseMat(mat);
+					liveBytes -= size;
+				}
+			}
+		}
+
+		images.clear();
+		mats.clear();
+	}
+
+	/*
+	 * Release every pooled buffer.
+	 */
+	public static synchronized void drainPool(){
+		for(LinkedList<IplImage> free: freeImages.values()){
+			for(IplImage img: free){
+				liveBytes -= img.imageSize();
+				cvReleaseImage(img);
+			}
+		}
+		for(LinkedList<CvMat> free: freeMats.values()){
+			for(CvMat mat: free){
+				liveBytes -= matSize(mat);
+				cvReleaseMat(mat);
+			}
+		}
+		freeImages.clear();
+		freeMats.clear();
+		pooledBytes = 0;
+	}
+
+	/*
+	 * Native bytes currently allocated through arenas, including the idle pool.
+	 */
+	public static synchronized long liveBytes(){
+		return liveBytes;
+	}
+
+	/*
+	 * Native bytes sitting idle in the pool.
+	 */
+	public static synchronized long pooledBytes(){
+		return pooledBytes;
+	}
+
+	private void checkOpen(){
+		if (closed){
+			throw new IllegalStateException("NativeArena used after close()");
+		}
+	}
+
+	private static String imageKey(int width, int height, int depth, int channels){
+		return width + "x" + height + ":" + depth + ":" + channels;
+	}
+
+	private static long matSize(CvMat mat){
+		return (long)mat.rows() * mat.step();
+	}
+}
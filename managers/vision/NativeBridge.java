@@ -0,0 +1,75 @@
+package vision;
+
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+
+import static com.googlecode.javacv.cpp.opencv_core.*;
+
+/*
+ * Moves 8 bit images between the Java heap and native memory.
+ *
+ * IplImage.createFrom and getBufferedImage walk the image through javacv's generic
+ * conversion code, and createFrom also registers a deallocator of its own, which doesn't mix
+ * with NativeArena. Here both directions are one bulk copy per row into or out of an image
+ * owned by an arena, with the bytes in the same order on both sides (TYPE_3BYTE_BGR is laid
+ * out exactly like a 3 channel IplImage).
+ */
+public class NativeBridge {
+
+	/*
+	 * A native 3 channel copy of img owned by arena.
+	 */
+	public static IplImage toNative(NativeArena arena, BufferedImage img){
+		BufferedImage source = ParallelRaster.threeByte(img);
+		int width = source.getWidth();
+		int height = source.getHeight();
+
+		IplImage output = arena.createImage(width, height, IPL_DEPTH_8U, 3);
+		byte[] src = ParallelRaster.bytes(source);
+		int srcStride = ParallelRaster.stride(source);
+		ByteBuffer dst = buffer(output);
+		int dstStride = output.widthStep();
+
+		for(int y=0;y<height;y++){
+			dst.position(y*dstStride);
+			dst.put(src, y*srcStride, width*3);
+		}
+		return output;
+	}
+
+	/*
+	 * A heap copy of an 8 bit, 1 or 3 channel native image, which stays valid after the
+	 * image's arena is closed. Anything else goes through javacv's own conversion.
+	 */
+	public static BufferedImage toHeap(IplImage img){
+		int channels = img.nChannels();
+		if (img.depth() != IPL_DEPTH_8U || (channels != 1 && channels != 3)){
+			return img.getBufferedImage();
+		}
+
+		int width = img.width();
+		int height = img.height();
+		BufferedImage output = new BufferedImage(width, height, (channels == 1)? BufferedImage.TYPE_BYTE_GRAY : BufferedImage.TYPE_3BYTE_BGR);
+		byte[] dst = ParallelRaster.bytes(output);
+		int dstStride = width*channels;
+		ByteBuffer src = buffer(img);
+		int srcStride = img.widthStep();
+		boolean bottomUp = img.origin() != IPL_ORIGIN_TL;
+
+		for(int y=0;y<height;y++){
+			src.position((bottomUp? height-1-y : y)*srcStride);
+			src.get(dst, y*dstStride, width*channels);
+		}
+		return output;
+	}
+
+	/*
+	 * The pixels of img, shared with the native side: writes through it are seen by OpenCV
+	 * and the other way around. Rows are widthStep() bytes apart.
+	 */
+	public static ByteBuffer buffer(IplImage img){
+		ByteBuffer buf = img.getByteBuffer();
+		buf.clear();
+		return buf;
+	}
+}
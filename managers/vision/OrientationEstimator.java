@@ -0,0 +1,241 @@
+package vision;
+
+import java.awt.image.BufferedImage;
+
+/*
+ * Guesses how far a page has to be turned to be upright, from the projection profiles of its
+ * ink: the number of dark pixels on each row (or column), after Otsu's threshold.
+ *
+ * Lines of text make a profile of tall peaks and empty gaps when it is taken along them, and a
+ * flat one across them, so the axis along which the profile varies most is the one the lines
+ * run along, and the small shear of the rows that varies it most is the skew. Which way up the
+ * lines are comes from the letters: Latin text has more ascenders than descenders, so most
+ * lines carry more ink above their x-height band than below it. Each line votes on its own, so
+ * that pictures and dark borders, which have no x-height, don't outweigh the text; a page is
+ * only turned when the votes along its lines agree clearly, otherwise only its skew is undone.
+ *
+ * Meant for small images (a few hundred pixels a side, such as the thumbnail decoded on import);
+ * the work is a handful of passes over the black pixels.
+ */
+public class OrientationEstimator {
+
+	/*
+	 * Largest skew looked for either way, and the steps of the coarse and fine searches, in
+	 * degrees. Skews smaller than MIN_SKEW are left alone.
+	 */
+	public static final double MAX_SKEW = 10;
+	private static final double COARSE_STEP = 1;
+	private static final double FINE_STEP = 0.1;
+	private static final double MIN_SKEW = 0.2;
+
+	/*
+	 * How much more ink a line has to carry on one side of its x-height band than on the other
+	 * to vote for that side being the top (see confidence()), and how many standard deviations
+	 * of an even split the votes have to come to before the page is turned. Calibrated on pages
+	 * of 10 to 20 pixel serif, sans serif and monospaced text at 1.15 to 1.5 line spacing, and
+	 * on the scans and photos in tests/: none of them is turned the wrong way, and the few which
+	 * are too close to call are left the way they came.
+	 */
+	private static final double VOTE_RATIO = 1.25;
+	private static final double MIN_CONFIDENCE = 2;
+
+	/*
+	 * Pages with fewer lines than this don't say which way up they are.
+	 */
+	private static final int MIN_LINES = 3;
+
+	/*
+	 * Share of each side left out, where the paper's edge and the background tend to be.
+	 */
+	private static final double MARGIN = 0.05;
+
+	/*
+	 * Black pixels used at most; pages with more are sampled evenly.
+	 */
+	private static final int MAX_SAMPLES = 8000;
+
+	/*
+	 * Degrees to turn page clockwise so that it reads upright: a multiple of 90 (from -90 to
+	 * 180) plus a skew of at most MAX_SKEW. The multiple of 90 is 0 unless the lines say
+	 * clearly which way up they are, and the whole estimate 0 when there's too little text.
+	 */
+	public static double estimate(BufferedImage page){
+		BufferedImage color = ParallelRaster.threeByte(page);
+		int width = color.getWidth();
+		int height = color.getHeight();
+		if (width < 16 || height < 16){return 0;}
+
+		byte[] gray = PixelKernels.gray(ParallelRaster.bytes(color), width, height, ParallelRaster.stride(color));
+		int x0 = (int)(width*MARGIN), x1 = width - x0;
+		int y0 = (int)(height*MARGIN), y1 = height - y0;
+
+		//a warped thumbnail is flat enough for one threshold (AdaptiveThreshold would cost more
+		//than everything else here put together)
+		int[] histogram = new int[256];
+		for(int y=y0;y<y1;y++){
+			for(int x=x0;x<x1;x++){
+				histogram[gray[y*width + x]&0xff]++;
+			}
+		}
+		int threshold = otsu(histogram);
+		int black = 0;
+		for(int v=0;v<threshold;v++){
+			black += histogram[v];
+		}
+		if (black < 0.002*(x1-x0)*(y1-y0) || black > 0.4*(x1-x0)*(y1-y0)){return 0;}
+
+		//coordinates of the black pixels, relative to the centre
+		int step = (black + MAX_SAMPLES - 1)/MAX_SAMPLES;
+		int n = black/step;
+		int[] xs = new int[n];
+		int[] ys = new int[n];
+		int seen = 0, i = 0;
+		for(int y=y0;y<y1 && i<n;y++){
+			for(int x=x0;x<x1 && i<n;x++){
+				if ((gray[y*width + x]&0xff) < threshold && seen++ % step == 0){
+					xs[i] = x - width/2;
+					ys[i] = y - height/2;
+					i++;
+				}
+			}
+		}
+
+		//the skew of the lines along each axis, and which way up they are along it
+		double rowSkew = bestSkew(xs, ys, height, 0, MAX_SKEW, COARSE_STEP);
+		rowSkew = bestSkew(xs, ys, height, rowSkew, COARSE_STEP, FINE_STEP);
+		double columnSkew = bestSkew(ys, xs, width, 0, MAX_SKEW, COARSE_STEP);
+		columnSkew = bestSkew(ys, xs, width, columnSkew, COARSE_STEP, FINE_STEP);
+		int[] rows = profile(xs, ys, height, rowSkew);
+		int[] columns = profile(ys, xs, width, columnSkew);
+		double rowConfidence = confidence(rows);
+		double columnConfidence = confidence(columns);
+		double ratio = spread(columns)*(x1-x0)/(spread(rows)*(y1-y0));
+
+		//the lines run along the axis whose profile varies most, so only that axis's votes count
+		double turn = 0, skew;
+		if (ratio > 1){
+			skew = columnSkew;
+			if (Math.abs(columnConfidence) >= MIN_CONFIDENCE){turn = (columnConfidence > 0)? -90 : 90;}
+		}else{
+			skew = -rowSkew;
+			if (Math.abs(rowConfidence) >= MIN_CONFIDENCE){turn = (rowConfidence > 0)? 180 : 0;}
+		}
+
+		if (Math.abs(skew) < MIN_SKEW){skew = 0;}
+		return turn + skew;
+	}
+
+	/*
+	 * The skew within range degrees of around, in steps of step, whose sheared profile along the
+	 * us varies most.
+	 */
+	private static double bestSkew(int[] us, int[] vs, int length, double around, double range, double step){
+		double best = around;
+		double bestScore = -1;
+		int steps = (int)Math.round(range/step);
+		for(int k=-steps;k<=steps;k++){
+			double a = around + k*step;
+			double score = spread(profile(us, vs, length, a));
+			if (score > bestScore){
+				bestScore = score;
+				best = a;
+			}
+		}
+		return best;
+	}
+
+	/*
+	 * Ink per line across the page (v, sheared by u*tan(degrees) to undo a clockwise skew of that
+	 * many degrees), for points relative to the centre of a page length long in v.
+	 */
+	private static int[] profile(int[] us, int[] vs, int length, double degrees){
+		int[] profile = new int[2*length];
+		double shear = Math.tan(Math.toRadians(degrees));
+		double offset = length + 0.5;
+		for(int i=0;i<us.length;i++){
+			int bin = (int)(vs[i] - us[i]*shear + offset);
+			if (bin >= 0 && bin < profile.length){profile[bin]++;}
+		}
+		return profile;
+	}
+
+	/*
+	 * Sum of squares of the profile: for the same amount of ink, the larger the peakier.
+	 */
+	private static double spread(int[] profile){
+		double sum = 0;
+		for(int p: profile){
+			sum += (double)p*p;
+		}
+		return sum;
+	}
+
+	/*
+	 * Which way up the lines of the profile are: the votes of the lines with more ink past their
+	 * x-height band (towards the end of the profile) than before it, i.e. more descenders than
+	 * ascenders, less the votes of those with more before it, in standard deviations of an even
+	 * split. Positive if the lines are upside down, 0 if there are too few of them to tell.
+	 */
+	private static double confidence(int[] profile){
+		int max = 0;
+		for(int p: profile){
+			max = Math.max(max, p);
+		}
+
+		//x-height bands are the runs of bins with at least a quarter of the most ink; what is
+		//within a band's height either side of it (and no nearer the next band) is its
+		//ascenders and descenders
+		int[] bands = new int[profile.length];
+		int count = 0;
+		for(int b=0;b<profile.length;){
+			if (profile[b] < max/4){b++; continue;}
+			bands[count++] = b;
+			while(b < profile.length && profile[b] >= max/4){b++;}
+			bands[count++] = b;
+		}
+		if (count/2 < MIN_LINES){return 0;}
+
+		int up = 0, down = 0;
+		for(int k=0;k<count;k+=2){
+			int start = bands[k], end = bands[k+1];
+			int reach = end - start;
+			int low = Math.max(start - reach, (k == 0)? 0 : (bands[k-1] + start)/2);
+			int high = Math.min(end + reach, (k+2 == count)? profile.length : (end + bands[k+2] + 1)/2);
+			long before = 0, after = 0;
+			for(int b=low;b<start;b++){before += profile[b];}
+			for(int b=end;b<high;b++){after += profile[b];}
+			if (after > VOTE_RATIO*before){down++;}
+			if (before > VOTE_RATIO*after){up++;}
+		}
+		return (up + down == 0)? 0 : (down - up)/Math.sqrt(up + down);
+	}
+
+	/*
+	 * Otsu's threshold: the gray level splitting the histogram into the two classes with the
+	 * most variance between them.
+	 */
+	private static int otsu(int[] histogram){
+		long total = 0, sum = 0;
+		for(int v=0;v<256;v++){
+			total += histogram[v];
+			sum += (long)v*histogram[v];
+		}
+
+		long below = 0, belowSum = 0;
+		double best = -1;
+		int threshold = 128;
+		for(int v=0;v<256;v++){
+			below += histogram[v];
+			belowSum += (long)v*histogram[v];
+			if (below == 0 || below == total){continue;}
+			double meanBelow = (double)belowSum/below;
+			double meanAbove = (double)(sum - belowSum)/(total - below);
+			double between = (double)below*(total - below)*(meanBelow - meanAbove)*(meanBelow - meanAbove);
+			if (between > best){
+				best = between;
+				threshold = v+1;
+			}
+		}
+		return threshold;
+	}
+}
@@ -0,0 +1,151 @@
+package vision;
+
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/*
+ * Shared plumbing for the pure-Java pixel kernels: a pool to run them on, a way to split
+ * an image into tiles or strips, and access to the byte[] behind a 3 channel image.
+ */
+public class ParallelRaster {
+
+	/*
+	 * One pool for all vision kernels, sized to the machine.
+	 */
+	private static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+	/*
+	 * Work on a rectangle [x0,x1) x [y0,y1) of an image.
+	 */
+	public interface TileKernel {
+		public void run(int x0, int y0, int x1, int y1);
+	}
+
+	/*
+	 * Run the kernel over the whole image in tiles of at most tileSize x tileSize,
+	 * in parallel. Returns when every tile is done.
+	 */
+	public static void forEachTile(int width, int height, int tileSize, TileKernel kernel){
+		if (width <= 0 || height <= 0){return;}
+		POOL.invoke(new TileTask(kernel, 0, 0, width, height, tileSize));
+	}
+
+	/*
+	 * Recursively halves its rectangle along the longer side until it fits in a tile.
+	 */
+	@SuppressWarnings("serial")
+	private static class TileTask extends RecursiveAction {
+		private final TileKernel kernel;
+		private final int x0, y0, x1, y1, tileSize;
+
+		TileTask(TileKernel kernel, int x0, int y0, int x1, int y1, int tileSize){
+			this.kernel = kernel;
+			this.x0 = x0;
+			this.y0 = y0;
+			this.x1 = x1;
+			this.y1 = y1;
+			this.tileSize = tileSize;
+		}
+
+		protected void compute(){
+			int w = x1-x0;
+			int h = y1-y0;
+			if (w <= tileSize && h <= tileSize){
+				kernel.run(x0, y0, x1, y1);
+			}else if (w >= h){
+				int mid = x0 + w/2;
+				invokeAll(new TileTask(kernel, x0, y0, mid, y1, tileSize), new TileTask(kernel, mid, y0, x1, y1, tileSize));
+			}else{
+				int mid = y0 + h/2;
+				invokeAll(new TileTask(kernel, x0, y0, x1, mid, tileSize), new TileTask(kernel, x0, mid, x1, y1, tileSize));
+			}
+		}
+	}
+
+	/*
+	 * Work on the rows [y0,y1) of an image.
+	 */
+	public interface StripKernel {
+		public void run(int y0, int y1);
+	}
+
+	/*
+	 * Rows per strip for kernels which only touch a handful of bytes per pixel.
+	 */
+	public static final int STRIP_ROWS = 64;
+
+	/*
+	 * Run the kernel over rows [0,height) in strips of at most stripRows rows, in parallel.
+	 * Small images are done on the calling thread.
+	 */
+	public static void forEachStrip(int height, int stripRows, StripKernel kernel){
+		if (height <= 0){return;}
+		if (height <= stripRows){
+			kernel.run(0, height);
+			return;
+		}
+		POOL.invoke(new StripTask(kernel, 0, height, stripRows));
+	}
+
+	@SuppressWarnings("serial")
+	private static class StripTask extends RecursiveAction {
+		private final StripKernel kernel;
+		private final int y0, y1, stripRows;
+
+		StripTask(StripKernel kernel, int y0, int y1, int stripRows){
+			this.kernel = kernel;
+			this.y0 = y0;
+			this.y1 = y1;
+			this.stripRows = stripRows;
+		}
+
+		protected void compute(){
+			if (y1-y0 <= stripRows){
+				kernel.run(y0, y1);
+			}else{
+				int mid = y0 + (y1-y0)/2;
+				invokeAll(new StripTask(kernel, y0, mid, stripRows), new StripTask(kernel, mid, y1, stripRows));
+			}
+		}
+	}
+
+	/*
+	 * Return an image with 3 interleaved bytes per pixel whose raster starts at the beginning
+	 * of its byte[]. Images which already look like that (e.g. most decoded JPEGs) are returned
+	 * as-is, anything else is drawn into a fresh TYPE_3BYTE_BGR image.
+	 */
+	public static BufferedImage threeByte(BufferedImage img){
+		if (img.getType() == BufferedImage.TYPE_3BYTE_BGR){
+			WritableRaster raster = img.getRaster();
+			if (raster.getParent() == null && raster.getDataBuffer().getOffset() == 0 &&
+					raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0){
+				return img;
+			}
+		}
+
+		BufferedImage converted = new BufferedImage(img.getWidth(), img.getHeight(), BufferedImage.TYPE_3BYTE_BGR);
+		Graphics g = converted.getGraphics();
+		g.drawImage(img, 0, 0, null);
+		g.dispose();
+		return converted;
+	}
+
+	/*
+	 * The bytes behind an image returned by threeByte().
+	 */
+	public static byte[] bytes(BufferedImage img){
+		return ((DataBufferByte)img.getRaster().getDataBuffer()).getData();
+	}
+
+	/*
+	 * Bytes per row of an image returned by threeByte().
+	 */
+	public static int stride(BufferedImage img){
+		return ((PixelInterleavedSampleModel)img.getSampleModel()).getScanlineStride();
+	}
+}
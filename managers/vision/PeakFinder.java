@@ -0,0 +1,175 @@
+package vision;
+
+import java.awt.Point;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+
+/*
+ * Turns the warpage field into corner candidates: every local maximum of the field within a
+ * (2*SUPPRESS_RADIUS+1) square window becomes a MergeZone, weighted by the sum of the field in
+ * a (2*SCORE_RADIUS+1) square around it.
+ *
+ * The window maximum is computed separably with the van Herk/Gil-Werman running max, so the
+ * whole thing is a fixed number of passes over the field whatever the window size.
+ */
+public class PeakFinder {
+
+	/*
+	 * Peaks closer than this (in either direction) to a stronger one are suppressed.
+	 */
+	public static final int SUPPRESS_RADIUS = 4;
+
+	/*
+	 * Half size of the window a peak is scored over.
+	 */
+	public static final int SCORE_RADIUS = 3;
+
+	/*
+	 * Peaks this close to a corner of the image get the lowest possible weight, since the
+	 * field piles up there regardless of the content.
+	 */
+	private static final int IMAGE_CORNER_DISTANCE = 3;
+
+	private static final Comparator<MergeZone> STRONGEST_FIRST = new Comparator<MergeZone>(){
+		public int compare(MergeZone a, MergeZone b){
+			return Double.compare(b.weight, a.weight);
+		}
+	};
+
+	/*
+	 * Local maxima of the row-major field, strongest first.
+	 */
+	public static ArrayList<MergeZone> findPeaks(float[] field, int width, int height){
+		float[] max = windowMax(field, width, height, SUPPRESS_RADIUS);
+		double[] integral = integral(field, width, height);
+
+		ArrayList<MergeZone> peaks = new ArrayList<MergeZone>();
+		boolean[] taken = new boolean[width*height];
+		for(int y=0;y<height;y++){
+			for(int x=0;x<width;x++){
+				int i = y*width + x;
+				if (field[i] != max[i] || takenNearby(taken, width, x, y)){continue;}
+				taken[i] = true;
+
+				MergeZone zone = new MergeZone(new Point(x, y));
+				zone.weight = windowSum(integral, width, height, x, y, SCORE_RADIUS);
+				if (nearImageCorner(zone, width, height)){
+					zone.weight = -1e100;
+				}
+				peaks.add(zone);
+			}
+		}
+
+		Collections.sort(peaks, STRONGEST_FIRST);
+		return peaks;
+	}
+
+	/*
+	 * Plateaus have several pixels equal to their window max; only the first (in scan order)
+	 * of those within the suppression window is kept. Already accepted peaks can only be above
+	 * or to the left, so that's all that needs looking at.
+	 */
+	private static boolean takenNearby(boolean[] taken, int width, int x, int y){
+		int x0 = Math.max(0, x-SUPPRESS_RADIUS);
+		int x1 = Math.min(width-1, x+SUPPRESS_RADIUS);
+		for(int yy=Math.max(0, y-SUPPRESS_RADIUS);yy<=y;yy++){
+			for(int xx=x0;xx<=x1;xx++){
+				if (taken[yy*width + xx]){return true;}
+			}
+		}
+		return false;
+	}
+
+	private static boolean nearImageCorner(MergeZone zone, int width, int height){
+		return zone.distance(new Point(0,0)) < IMAGE_CORNER_DISTANCE || zone.distance(new Point(width,0)) < IMAGE_CORNER_DISTANCE ||
+				zone.distance(new Point(0,height)) < IMAGE_CORNER_DISTANCE || zone.distance(new Point(width,height)) < IMAGE_CORNER_DISTANCE;
+	}
+
+	/*
+	 * Max over the (2r+1) square around every pixel, clamped at the borders.
+	 */
+	static float[] windowMax(float[] field, int width, int height, int r){
+		float[] rows = new float[width*height];
+		float[] line = new float[Math.max(width, height)];
+		float[] out = new float[Math.max(width, height)];
+
+		for(int y=0;y<height;y++){
+			System.arraycopy(field, y*width, line, 0, width);
+			runningMax(line, width, r, out);
+			System.arraycopy(out, 0, rows, y*width, width);
+		}
+
+		float[] result = new float[width*height];
+		for(int x=0;x<width;x++){
+			for(int y=0;y<height;y++){
+				line[y] = rows[y*width + x];
+			}
+			runningMax(line, height, r, out);
+			for(int y=0;y<height;y++){
+				result[y*width + x] = out[y];
+			}
+		}
+		return result;
+	}
+
+	/*
+	 * van Herk/Gil-Werman: split the line into blocks of the window size, take prefix maxima
+	 * forward and suffix maxima backward within each block, and every window is then covered by
+	 * one suffix and one prefix. Three comparisons per sample for any r.
+	 */
+	private static void runningMax(float[] line, int n, int r, float[] out){
+		int k = 2*r + 1;
+		int padded = n + 2*r;
+		float[] g = new float[padded];
+		float[] h = new float[padded];
+
+		for(int i=0;i<padded;i++){
+			float v = sample(line, n, i-r);
+			g[i] = (i%k == 0)? v : Math.max(g[i-1], v);
+		}
+		for(int i=padded-1;i>=0;i--){
+			float v = sample(line, n, i-r);
+			h[i] = (i%k == k-1 || i == padded-1)? v : Math.max(h[i+1], v);
+		}
+		for(int i=0;i<n;i++){
+			out[i] = Math.max(h[i], g[i+k-1]);
+		}
+	}
+
+	private static float sample(float[] line, int n, int i){
+		return (i < 0 || i >= n)? Float.NEGATIVE_INFINITY : line[i];
+	}
+
+	/*
+	 * (width+1)*(height+1) summed area table, in double so large fields don't lose the peaks.
+	 */
+	private static double[] integral(float[] field, int width, int height){
+		int stride = width+1;
+		double[] sat = new double[stride*(height+1)];
+		double[] row = new double[width];
+		for(int y=0;y<height;y++){
+			double sum = 0;
+			for(int x=0;x<width;x++){
+				sum += field[y*width + x];
+				row[x] = sum;
+			}
+			//the running sum is serial, adding the row above isn't
+			if (PixelKernels.SIMD != null){
+				PixelKernels.SIMD.addRows(sat, y*stride + 1, row, sat, (y+1)*stride + 1, width);
+			}else{
+				for(int x=0;x<width;x++){
+					sat[(y+1)*stride + x+1] = sat[y*stride + x+1] + row[x];
+				}
+			}
+		}
+		return sat;
+	}
+
+	private static double windowSum(double[] sat, int width, int height, int x, int y, int r){
+		int stride = width+1;
+		int x0 = Math.max(0, x-r), x1 = Math.min(width, x+r+1);
+		int y0 = Math.max(0, y-r), y1 = Math.min(height, y+r+1);
+		return sat[y1*stride + x1] - sat[y0*stride + x1] - sat[y1*stride + x0] + sat[y0*stride + x0];
+	}
+}
@@ -0,0 +1,9 @@
+package vision;
+
+/*
+ * What rerenderImage produces: 3 channel color (TYPE_3BYTE_BGR), 8 bit gray (TYPE_BYTE_GRAY) or
+ * 1 bit black and white packed 8 pixels to a byte (TYPE_BYTE_BINARY).
+ */
+public enum PixelFormat {
+	RGB, GRAY, BITONAL;
+}
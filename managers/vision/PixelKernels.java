@@ -0,0 +1,163 @@
+package vision;
+
+/*
+ * Per-pixel kernels for 3 channel, 8 bit interleaved images stored row-major in a byte[]
+ * (stride bytes per row), in the byte order of a TYPE_3BYTE_BGR image: channel 0 is blue,
+ * channel 1 green and channel 2 red.
+ *
+ * Every kernel walks the rows in order and is split into strips across the vision pool.
+ */
+public class PixelKernels {
+
+	/*
+	 * Fixed-point (16 bit) Rec. 601 luma weights for channels 0, 1 and 2 (blue, green, red).
+	 */
+	private static final int LUMA_0 = 7471;
+	private static final int LUMA_1 = 38470;
+	private static final int LUMA_2 = 19595;
+
+	/*
+	 * Set to false to always use the scalar loops, even where the vector kernels are available.
+	 */
+	private static final boolean SIMD_ENABLED = true;
+
+	/*
+	 * The Vector API kernels, or null if they weren't compiled in or the JVM wasn't started
+	 * with --add-modules jdk.incubator.vector.
+	 */
+	static final SimdKernels SIMD = loadSimd();
+
+	/*
+	 * Shift channel 0 up and channel 2 down by shift, clamping to [0,255].
+	 */
+	public static void temperature(final byte[] data, final int width, int height, final int stride, int shift){
+		final byte[] lut0 = shiftLut(shift);
+		final byte[] lut2 = shiftLut(-shift);
+		final int shift0 = shift;
+
+		ParallelRaster.forEachStrip(height, ParallelRaster.STRIP_ROWS, new ParallelRaster.StripKernel(){
+			public void run(int y0, int y1){
+				for(int y=y0;y<y1;y++){
+					if (SIMD != null){
+						SIMD.shiftChannels(data, y*stride, width*3, shift0, 0, -shift0);
+						continue;
+					}
+					int end = y*stride + width*3;
+					for(int o=y*stride;o<end;o+=3){
+						data[o] = lut0[data[o]&0xff];
+						data[o+2] = lut2[data[o+2]&0xff];
+					}
+				}
+			}
+		});
+	}
+
+	/*
+	 * Project to gray with custom weights for channels 0, 1 and 2. Returns a width x height
+	 * single channel image (no row padding). The weights are applied in 16 bit fixed point.
+	 */
+	public static byte[] grayProject(final byte[] data, final int width, int height, final int stride, double r, double g, double b){
+		final byte[] gray = new byte[width*height];
+		final int wr = (int)Math.round(r*65536);
+		final int wg = (int)Math.round(g*65536);
+		final int wb = (int)Math.round(b*65536);
+
+		ParallelRaster.forEachStrip(height, ParallelRaster.STRIP_ROWS, new ParallelRaster.StripKernel(){
+			public void run(int y0, int y1){
+				for(int y=y0;y<y1;y++){
+					int o = y*stride;
+					int end = y*width + width;
+					for(int i=y*width;i<end;i++, o+=3){
+						gray[i] = (byte)(((data[o]&0xff)*wr + (data[o+1]&0xff)*wg + (data[o+2]&0xff)*wb) >> 16);
+					}
+				}
+			}
+		});
+		return gray;
+	}
+
+	/*
+	 * The luma of every pixel (see luma()), as a width x height single channel image (no row
+	 * padding).
+	 */
+	public static byte[] gray(final byte[] data, final int width, int height, final int stride){
+		final byte[] gray = new byte[width*height];
+
+		ParallelRaster.forEachStrip(height, ParallelRaster.STRIP_ROWS, new ParallelRaster.StripKernel(){
+			public void run(int y0, int y1){
+				for(int y=y0;y<y1;y++){
+					int o = y*stride;
+					int end = y*width + width;
+					for(int i=y*width;i<end;i++, o+=3){
+						gray[i] = (byte)luma(data, o);
+					}
+				}
+			}
+		});
+		return gray;
+	}
+
+	/*
+	 * Histograms of channels 0, 1 and 2 in one pass: count[c*256 + v] is the number of pixels
+	 * whose channel c is v. Each strip counts into its own table and they are summed at the end.
+	 */
+	public static int[] channelHistograms(final byte[] data, final int width, int height, final int stride){
+		final int[] histogram = new int[3*256];
+
+		ParallelRaster.forEachStrip(height, ParallelRaster.STRIP_ROWS, new ParallelRaster.StripKernel(){
+			public void run(int y0, int y1){
+				int[] local = new int[3*256];
+				for(int y=y0;y<y1;y++){
+					int end = y*stride + width*3;
+					for(int o=y*stride;o<end;o+=3){
+						local[data[o]&0xff]++;
+						local[256 + (data[o+1]&0xff)]++;
+						local[512 + (data[o+2]&0xff)]++;
+					}
+				}
+				synchronized(histogram){
+					for(int i=0;i<local.length;i++){
+						histogram[i] += local[i];
+					}
+				}
+			}
+		});
+		return histogram;
+	}
+
+	/*
+	 * Luma of a pixel from its channels 0, 1 and 2. Every kernel which needs luma gets it from
+	 * here, so they all agree on the weights.
+	 */
+	static int luma(int c0, int c1, int c2){
+		return (c0*LUMA_0 + c1*LUMA_1 + c2*LUMA_2 + (1<<15)) >> 16;
+	}
+
+	/*
+	 * Luma of the pixel at offset o of an interleaved image.
+	 */
+	static int luma(byte[] data, int o){
+		return luma(data[o]&0xff, data[o+1]&0xff, data[o+2]&0xff);
+	}
+
+	/*
+	 * Table for adding shift to a channel value with clamping.
+	 */
+	static byte[] shiftLut(int shift){
+		byte[] lut = new byte[256];
+		for(int v=0;v<256;v++){
+			lut[v] = (byte)Math.max(0, Math.min(255, v+shift));
+		}
+		return lut;
+	}
+
+	private static SimdKernels loadSimd(){
+		if (!SIMD_ENABLED){return null;}
+		try {
+			return (SimdKernels) Class.forName("vision.VectorKernels").getDeclaredConstructor().newInstance();
+		} catch (Throwable e) {
+			//not built, or no jdk.incubator.vector at runtime
+			return null;
+		}
+	}
+}
@@ -0,0 +1,113 @@
+package vision;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Picks the four zones which make the best page outline: the convex quadrilateral whose
+ * interior angles are closest to right angles (the same score as PotentialCorners.metric2).
+ *
+ * Rather than scoring every 4-combination, quads are built one vertex at a time going around
+ * counter-clockwise from their lowest-index vertex, so each convex quad is seen exactly once and
+ * anything that isn't convex is dropped as soon as it turns the wrong way. Once the angle at the
+ * second vertex is known, the other three have to make up the rest of 2*pi, which bounds the best
+ * score still reachable; branches that can't beat the best quad found so far are cut there.
+ */
+public class QuadSearch {
+
+	/*
+	 * Zones beyond this many (in the order given, i.e. the weakest) are ignored.
+	 */
+	public static final int MAX_ZONES = 256;
+
+	private static final double RIGHT = Math.PI/2;
+
+	private final double[] xs;
+	private final double[] ys;
+	private final int n;
+
+	private double bestPenalty;
+	private final int[] best;
+
+	private QuadSearch(List<MergeZone> zones){
+		this.n = Math.min(zones.size(), MAX_ZONES);
+		this.xs = new double[n];
+		this.ys = new double[n];
+		for(int i=0;i<n;i++){
+			xs[i] = zones.get(i).point.x;
+			ys[i] = zones.get(i).point.y;
+		}
+		this.bestPenalty = Double.POSITIVE_INFINITY;
+		this.best = new int[4];
+	}
+
+	/*
+	 * The four zones of the best convex quad, or null if no four of them form one.
+	 */
+	public static List<MergeZone> bestQuad(List<MergeZone> zones){
+		if (zones.size() < 4){return null;}
+
+		QuadSearch search = new QuadSearch(zones);
+		search.run();
+		if (search.bestPenalty == Double.POSITIVE_INFINITY){return null;}
+
+		ArrayList<MergeZone> quad = new ArrayList<MergeZone>();
+		for(int i: search.best){
+			quad.add(zones.get(i));
+		}
+		return quad;
+	}
+
+	private void run(){
+		for(int a=0;a<n;a++){
+			for(int b=a+1;b<n;b++){
+				for(int c=a+1;c<n;c++){
+					if (c == b || turn(a, b, c) <= 0){continue;}
+
+					//the other three angles sum to 2pi - angleB; they're best when equal
+					double eb = angle(a, b, c) - RIGHT;
+					double partial = eb*eb;
+					if (partial + partial/3 >= bestPenalty){continue;}
+
+					for(int d=a+1;d<n;d++){
+						if (d == b || d == c){continue;}
+						if (turn(b, c, d) <= 0 || turn(c, d, a) <= 0 || turn(d, a, b) <= 0){continue;}
+
+						double ec = angle(b, c, d) - RIGHT;
+						double penalty = partial + ec*ec;
+						if (penalty >= bestPenalty){continue;}
+						double ed = angle(c, d, a) - RIGHT;
+						penalty += ed*ed;
+						if (penalty >= bestPenalty){continue;}
+						double ea = angle(d, a, b) - RIGHT;
+						penalty += ea*ea;
+
+						if (penalty < bestPenalty){
+							bestPenalty = penalty;
+							best[0] = a;
+							best[1] = b;
+							best[2] = c;
+							best[3] = d;
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/*
+	 * Cross product of (q-p) and (r-q): positive when p, q, r turn counter-clockwise.
+	 */
+	private double turn(int p, int q, int r){
+		return (xs[q]-xs[p])*(ys[r]-ys[q]) - (ys[q]-ys[p])*(xs[r]-xs[q]);
+	}
+
+	/*
+	 * Angle at q between the arms to p and r, in [0, pi].
+	 */
+	private double angle(int p, int q, int r){
+		double ux = xs[p]-xs[q], uy = ys[p]-ys[q];
+		double vx = xs[r]-xs[q], vy = ys[r]-ys[q];
+		return Math.atan2(Math.abs(ux*vy - uy*vx), ux*vx + uy*vy);
+	}
+}
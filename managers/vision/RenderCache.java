@@ -0,0 +1,255 @@
+package vision;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import core.Corners;
+
+/*
+ * Cache of rendered pages, keyed by everything that goes into a render: the identity of the
+ * raw file, the corners and the configuration. Keeps a memory tier bounded in bytes with LRU
+ * eviction in front of a disk tier of compressed rasters.
+ *
+ * Cached images are shared, so callers must not modify them.
+ */
+public class RenderCache {
+
+	/*
+	 * Bumped whenever the rendering code changes what a key produces.
+	 */
+	private static final int FORMAT_VERSION = 2;
+
+	private final File directory;
+	private final long memoryLimit;
+	private final long diskLimit;
+
+	private final LinkedHashMap<String, BufferedImage> memory;
+	private long memoryBytes;
+
+	//disk writes happen in the background so a miss costs no more than the render
+	private final ExecutorService writer;
+
+	public RenderCache(File directory, long memoryLimit, long diskLimit){
+		this.directory = directory;
+		this.memoryLimit = memoryLimit;
+		this.diskLimit = diskLimit;
+		this.memory = new LinkedHashMap<String, BufferedImage>(16, 0.75f, true);
+		this.memoryBytes = 0;
+
+		if (!directory.exists() && !directory.mkdirs()){
+			System.err.println("Couldn't create the render cache directory " + directory + "; caching in memory only.");
+		}
+
+		this.writer = Executors.newSingleThreadExecutor(new ThreadFactory(){
+			public Thread newThread(Runnable r){
+				Thread t = new Thread(r, "RenderCache writer");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/*
+	 * The key for a render of the raw file at rawPath. The file is identified by its path,
+	 * size and modification time, so replacing it invalidates its renders.
+	 */
+	public static String key(String rawPath, Corners corners, ConfigurationDictionary config){
+		File raw = new File(rawPath);
+		StringBuilder key = new StringBuilder();
+		key.append(FORMAT_VERSION).append('|');
+		key.append(raw.getAbsolutePath()).append('|').append(raw.length()).append('|').append(raw.lastModified()).append('|');
+		key.append(corners.toString()).append('|');
+		key.append((config == null)? "" : config.cacheKey());
+		return key.toString();
+	}
+
+	/*
+	 * The cached render for key, or null. A disk hit is promoted into memory.
+	 */
+	public BufferedImage get(String key){
+		synchronized(this){
+			BufferedImage img = memory.get(key);
+			if (img != null){return img;}
+		}
+
+		File file = fileFor(key);
+		if (!file.exists()){return null;}
+
+		BufferedImage img;
+		try {
+			img = readRaster(file);
+		} catch (IOException e) {
+			System.err.println("Discarding unreadable render cache entry " + file + ": " + e.getMessage());
+			file.delete();
+			return null;
+		}
+		file.setLastModified(System.currentTimeMillis());
+
+		synchronized(this){
+			remember(key, img);
+		}
+		return img;
+	}
+
+	/*
+	 * Cache a render under key, in memory now and on disk shortly.
+	 */
+	public void put(final String key, BufferedImage img){
+		final BufferedImage stored = ParallelRaster.threeByte(img);
+		synchronized(this){
+			remember(key, stored);
+		}
+
+		writer.execute(new Runnable(){
+			public void run(){
+				File file = fileFor(key);
+				try {
+					writeRaster(stored, file);
+					trimDisk();
+				} catch (IOException e) {
+					System.err.println("Couldn't write render cache entry " + file + ": " + e.getMessage());
+					file.delete();
+				}
+			}
+		});
+	}
+
+	/*
+	 * Drop everything held in memory (the disk tier is kept).
+	 */
+	public synchronized void clearMemory(){
+		memory.clear();
+		memoryBytes = 0;
+	}
+
+	public synchronized long memoryBytes(){
+		return memoryBytes;
+	}
+
+	private void remember(String key, BufferedImage img){
+		long size = sizeOf(img);
+		if (size > memoryLimit){return;}
+
+		BufferedImage old = memory.put(key, img);
+		if (old != null){memoryBytes -= sizeOf(old);}
+		memoryBytes += size;
+
+		Iterator<Map.Entry<String, BufferedImage>> eldest = memory.entrySet().iterator();
+		while(memoryBytes > memoryLimit && eldest.hasNext()){
+			memoryBytes -= sizeOf(eldest.next().getValue());
+			eldest.remove();
+		}
+	}
+
+	private static long sizeOf(BufferedImage img){
+		return (long)ParallelRaster.stride(img) * img.getHeight();
+	}
+
+	/*
+	 * Delete the least recently used files until the directory fits the disk budget.
+	 */
+	private void trimDisk(){
+		File[] files = directory.listFiles();
+		if (files == null){return;}
+
+		long total = 0;
+		for(File f: files){
+			total += f.length();
+		}
+		if (total <= diskLimit){return;}
+
+		Arrays.sort(files, new Comparator<File>(){
+			public int compare(File a, File b){
+				return Long.valueOf(a.lastModified()).compareTo(b.lastModified());
+			}
+		});
+		for(int i=0;i<files.length && total > diskLimit;i++){
+			long length = files[i].length();
+			if (files[i].delete()){
+				total -= length;
+			}
+		}
+	}
+
+	private File fileFor(String key){
+		return new File(directory, hash(key) + ".raster");
+	}
+
+	private static String hash(String key){
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes("UTF-8"));
+			StringBuilder hex = new StringBuilder();
+			for(byte b: digest){
+				hex.append(String.format("%02x", b&0xff));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			return Integer.toHexString(key.hashCode());
+		} catch (IOException e) {
+			return Integer.toHexString(key.hashCode());
+		}
+	}
+
+	/*
+	 * Raster files are width, height, then the 3 byte rows, deflated at the fastest level.
+	 */
+	private static void writeRaster(BufferedImage img, File file) throws IOException{
+		File partial = new File(file.getPath() + ".part");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new DeflaterOutputStream(new FileOutputStream(partial), new Deflater(Deflater.BEST_SPEED), 1<<16)));
+		try {
+			out.writeInt(img.getWidth());
+			out.writeInt(img.getHeight());
+			byte[] data = ParallelRaster.bytes(img);
+			int stride = ParallelRaster.stride(img);
+			for(int y=0;y<img.getHeight();y++){
+				out.write(data, y*stride, img.getWidth()*3);
+			}
+		} finally {
+			out.close();
+		}
+		if (!partial.renameTo(file)){
+			partial.delete();
+			throw new IOException("couldn't move the finished file into place");
+		}
+	}
+
+	private static BufferedImage readRaster(File file) throws IOException{
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new InflaterInputStream(new FileInputStream(file)), 1<<16));
+		try {
+			int width = in.readInt();
+			int height = in.readInt();
+			if (width <= 0 || height <= 0){throw new IOException("bad dimensions");}
+
+			BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+			byte[] data = ParallelRaster.bytes(img);
+			int stride = ParallelRaster.stride(img);
+			for(int y=0;y<height;y++){
+				in.readFully(data, y*stride, width*3);
+			}
+			return img;
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,26 @@
+package vision;
+
+/*
+ * The kernels which have a Vector API (jdk.incubator.vector) implementation. That lives in
+ * simd/vision/VectorKernels.java, outside the main source folders, since it only builds on JDK 16+
+ * with --add-modules jdk.incubator.vector; PixelKernels.SIMD loads it if it's there and the
+ * callers use their scalar loops otherwise.
+ *
+ * Only kernels which measured faster vectorized are here (see VisionBenchmark). The gray
+ * projection and binarization need the channels deinterleaved, and the cross-lane shuffles
+ * that takes made them slower than the scalar loops.
+ */
+public interface SimdKernels {
+
+	/*
+	 * Add shift0, shift1 and shift2 to channels 0, 1 and 2 of the length bytes at offset
+	 * (interleaved, starting with channel 0), clamping to [0,255].
+	 */
+	public void shiftChannels(byte[] data, int offset, int length, int shift0, int shift1, int shift2);
+
+	/*
+	 * out[outOffset + i] = above[aboveOffset + i] + row[i] for i in [0, n): one row of a summed
+	 * area table from the one above it and the running sums along this row.
+	 */
+	public void addRows(double[] above, int aboveOffset, double[] row, double[] out, int outOffset, int n);
+}
@@ -0,0 +1,185 @@
+package vision;
+
+import java.awt.image.BufferedImage;
+
+/*
+ * A ConfigurationDictionary compiled into a single per-pixel kernel. Temperature becomes a
+ * 256 entry table per channel and flips are folded into where each output pixel is read from.
+ * Applying it costs one read and one write of the image however many of those settings are on.
+ *
+ * Contrast boost and the bilateral filter look at neighbourhoods, so they can't be fused; when
+ * either is on the caller runs them on the image applyPointOperations() returns, before
+ * applyThreshold(). Binarization is local too (see AdaptiveThreshold) and always runs last.
+ */
+public class TransformPipeline {
+
+	private byte[] lut0;
+	private byte[] lut1;
+	private byte[] lut2;
+	private int temperature;
+
+	private boolean flipHorizontal;
+	private boolean flipVertical;
+	private double rotation;
+	private boolean binarize;
+	private boolean contrastBoost;
+	private boolean bilateralFilter;
+
+	private TransformPipeline(){
+		lut0 = identityLut();
+		lut1 = identityLut();
+		lut2 = identityLut();
+	}
+
+	/*
+	 * Build the pipeline for a configuration. A null configuration compiles to the identity.
+	 */
+	public static TransformPipeline compile(ConfigurationDictionary config){
+		TransformPipeline pipeline = new TransformPipeline();
+		if (config == null){return pipeline;}
+
+		for(Object _name: config.getAllKeys()){
+			ConfigurationValue currentValue = config.getKeyWithName((String)_name);
+
+			if (currentValue.type == ConfigurationValue.ValueType.ColorTemperature){
+				int kelvin = (Integer)currentValue.value();
+				pipeline.lut0 = PixelKernels.shiftLut(kelvin);
+				pipeline.lut2 = PixelKernels.shiftLut(-kelvin);
+				pipeline.temperature = kelvin;
+			}else if (currentValue.type == ConfigurationValue.ValueType.FlipHorizontal){
+				pipeline.flipHorizontal = (Boolean)currentValue.value();
+			}else if (currentValue.type == ConfigurationValue.ValueType.FlipVertical){
+				pipeline.flipVertical = (Boolean)currentValue.value();
+			}else if (currentValue.type == ConfigurationValue.ValueType.Binarize){
+				pipeline.binarize = (Boolean)currentValue.value();
+			}else if (currentValue.type == ConfigurationValue.ValueType.ContrastBoost){
+				pipeline.contrastBoost = (Boolean)currentValue.value();
+			}else if (currentValue.type == ConfigurationValue.ValueType.BilateralFilter){
+				pipeline.bilateralFilter = (Boolean)currentValue.value();
+			}else if (currentValue.type == ConfigurationValue.ValueType.Rotation){
+				pipeline.rotation = (Double)currentValue.value();
+			}else{
+				System.err.println("A type in a ConfigurationDictionary given to TransformPipeline is invalid and non-processable.");
+			}
+		}
+		return pipeline;
+	}
+
+	public boolean flipHorizontal(){
+		return flipHorizontal;
+	}
+
+	public boolean flipVertical(){
+		return flipVertical;
+	}
+
+	/*
+	 * Degrees the page is turned clockwise. Only HomographyWarp applies it; the per-pixel
+	 * passes leave images the way they are.
+	 */
+	public double rotation(){
+		return rotation;
+	}
+
+	/*
+	 * The same pipeline with the flips and the rotation taken out, for images which were
+	 * flipped and rotated already (see HomographyWarp.warp).
+	 */
+	public TransformPipeline withoutFlipsOrRotation(){
+		TransformPipeline pipeline = new TransformPipeline();
+		pipeline.lut0 = lut0;
+		pipeline.lut1 = lut1;
+		pipeline.lut2 = lut2;
+		pipeline.temperature = temperature;
+		pipeline.binarize = binarize;
+		pipeline.contrastBoost = contrastBoost;
+		pipeline.bilateralFilter = bilateralFilter;
+		return pipeline;
+	}
+
+	public boolean binarize(){
+		return binarize;
+	}
+
+	public boolean contrastBoost(){
+		return contrastBoost;
+	}
+
+	public boolean bilateralFilter(){
+		return bilateralFilter;
+	}
+
+	/*
+	 * Flips and color tables, without the threshold. Returns a new image.
+	 */
+	public BufferedImage applyPointOperations(BufferedImage img){
+		return run(img);
+	}
+
+	/*
+	 * Binarize img (if the configuration asks for it) and return the result. That is img itself,
+	 * binarized in place, when img is a TYPE_3BYTE_BGR image as ParallelRaster.threeByte()
+	 * passes through (such as applyPointOperations() returns); anything else is binarized in a
+	 * converted copy and img is left alone.
+	 */
+	public BufferedImage applyThreshold(BufferedImage img){
+		if (!binarize){return img;}
+		BufferedImage out = ParallelRaster.threeByte(img);
+		AdaptiveThreshold.binarize(ParallelRaster.bytes(out), out.getWidth(), out.getHeight(), ParallelRaster.stride(out));
+		return out;
+	}
+
+	private BufferedImage run(BufferedImage img){
+		BufferedImage source = ParallelRaster.threeByte(img);
+		final byte[] src = ParallelRaster.bytes(source);
+		final int srcStride = ParallelRaster.stride(source);
+		final int width = source.getWidth();
+		final int height = source.getHeight();
+
+		BufferedImage output = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+		final byte[] dst = ParallelRaster.bytes(output);
+		final int dstStride = ParallelRaster.stride(output);
+
+		ParallelRaster.forEachStrip(height, ParallelRaster.STRIP_ROWS, new ParallelRaster.StripKernel(){
+			public void run(int ys, int ye){
+				for(int y=ys;y<ye;y++){
+					fillRow(src, srcStride, width, height, y, dst, y*dstStride);
+				}
+			}
+		});
+
+		return output;
+	}
+
+	/*
+	 * Output row y, written to dst starting at o.
+	 */
+	private void fillRow(byte[] src, int srcStride, int width, int height, int y, byte[] dst, int o){
+		final byte[] l0 = lut0, l1 = lut1, l2 = lut2;
+		int sy = flipVertical? height-1-y : y;
+
+		//the tables only ever shift channels 0 and 2, which the vector kernel does on a copy of
+		//the row faster than looking up every byte (as long as the shift fits in a byte lane)
+		if (PixelKernels.SIMD != null && !flipHorizontal && Math.abs(temperature) < 128){
+			System.arraycopy(src, sy*srcStride, dst, o, width*3);
+			if (temperature != 0){
+				PixelKernels.SIMD.shiftChannels(dst, o, width*3, temperature, 0, -temperature);
+			}
+			return;
+		}
+
+		int s = sy*srcStride + (flipHorizontal? (width-1)*3 : 0);
+		int step = flipHorizontal? -3:3;
+		int end = o + width*3;
+
+		for(;o<end;o+=3, s+=step){
+			dst[o] = l0[src[s]&0xff];
+			dst[o+1] = l1[src[s+1]&0xff];
+			dst[o+2] = l2[src[s+2]&0xff];
+		}
+	}
+
+	private static byte[] identityLut(){
+		return PixelKernels.shiftLut(0);
+	}
+}
@@ -0,0 +1,285 @@
+package vision;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import javax.imageio.ImageIO;
+
+import static com.googlecode.javacv.cpp.opencv_core.*;
+import static com.googlecode.javacv.cpp.opencv_imgproc.*;
+
+/*
+ * Rough timings for the pure-Java vision kernels. Each benchmark warms up, then reports the
+ * best of several runs in milliseconds. Run from the project root:
+ *
+ *   java -cp bin/:libraries/jar/... vision.VisionBenchmark [image]
+ *
+ * The "legacy" kernels are copies of the old column-major ByteBuffer loops, kept here only
+ * as a baseline.
+ */
+public class VisionBenchmark {
+
+	private static final int WARMUP = 5;
+	private static final int RUNS = 10;
+
+	/*
+	 * Something to time.
+	 */
+	private interface Task {
+		public void run();
+	}
+
+	private static double time(Task t){
+		for(int i=0;i<WARMUP;i++){
+			t.run();
+		}
+		long best = Long.MAX_VALUE;
+		for(int i=0;i<RUNS;i++){
+			long start = System.nanoTime();
+			t.run();
+			best = Math.min(best, System.nanoTime()-start);
+		}
+		return best/1e6;
+	}
+
+	private static void report(String name, double legacy, double current){
+		System.out.printf("%-24s legacy %9.2f ms   current %9.2f ms   x%.1f\n", name, legacy, current, legacy/current);
+	}
+
+	/*
+	 * The SimdKernels against the scalar loops they replace, when the vector kernels are loaded.
+	 */
+	private static void vectorKernels(final byte[] data, final int width, final int height, final int stride){
+		final SimdKernels simd = PixelKernels.SIMD;
+		if (simd == null){
+			System.out.println("vector kernels not loaded (build simd/ and run with --add-modules jdk.incubator.vector)");
+			return;
+		}
+
+		final byte[] redLut = PixelKernels.shiftLut(10);
+		final byte[] blueLut = PixelKernels.shiftLut(-10);
+		double scalar = time(new Task(){
+			public void run(){
+				for(int y=0;y<height;y++){
+					int end = y*stride + width*3;
+					for(int o=y*stride;o<end;o+=3){
+						data[o] = redLut[data[o]&0xff];
+						data[o+2] = blueLut[data[o+2]&0xff];
+					}
+				}
+			}
+		});
+		double vector = time(new Task(){
+			public void run(){
+				for(int y=0;y<height;y++){
+					simd.shiftChannels(data, y*stride, width*3, 10, 0, -10);
+				}
+			}
+		});
+		System.out.printf("%-24s scalar %9.2f ms   vector  %9.2f ms   x%.1f\n", "channel shift", scalar, vector, scalar/vector);
+
+		//the summed area table over a field the size of the image
+		final int satStride = width+1;
+		final double[] sat = new double[satStride*(height+1)];
+		final double[] row = new double[width];
+		Arrays.fill(row, 1);
+		scalar = time(new Task(){
+			public void run(){
+				for(int y=0;y<height;y++){
+					for(int x=0;x<width;x++){
+						sat[(y+1)*satStride + x+1] = sat[y*satStride + x+1] + row[x];
+					}
+				}
+			}
+		});
+		vector = time(new Task(){
+			public void run(){
+				for(int y=0;y<height;y++){
+					simd.addRows(sat, y*satStride + 1, row, sat, (y+1)*satStride + 1, width);
+				}
+			}
+		});
+		System.out.printf("%-24s scalar %9.2f ms   vector  %9.2f ms   x%.1f\n", "integral rows", scalar, vector, scalar/vector);
+	}
+
+	/*
+	 * The corner detection front end (resize to 200px, optimal gray, Harris) through javacv and
+	 * through CornerDetector. The javacv side is skipped when the native libraries won't load.
+	 */
+	private static void cornerFrontEnd(String name, BufferedImage img){
+		final BufferedImage image = img;
+		final int side = 200;
+
+		double java = time(new Task(){
+			public void run(){
+				BufferedImage mini = CornerDetector.resizeArea(image, side);
+				byte[] gray = CornerDetector.optimalGray(ParallelRaster.bytes(mini), mini.getWidth(), mini.getHeight(), ParallelRaster.stride(mini), 1);
+				CornerDetector.harris(gray, mini.getWidth(), mini.getHeight(), side/20, 0.04);
+			}
+		});
+
+		double javacv;
+		try {
+			javacv = time(new Task(){
+				public void run(){
+					NativeArena arena = NativeArena.open();
+					try {
+						IplImage full = NativeBridge.toNative(arena, image);
+						int w = (image.getWidth() > image.getHeight())? side : (int)(image.getWidth()*1.0/image.getHeight()*side);
+						int h = (image.getWidth() > image.getHeight())? (int)(image.getHeight()*1.0/image.getWidth()*side) : side;
+						IplImage mini = arena.createImage(w, h, IPL_DEPTH_8U, 3);
+						cvResize(full, mini, CV_INTER_AREA);
+						IplImage gray = arena.createImage(w, h, IPL_DEPTH_8U, 1);
+						cvCvtColor(mini, gray, CV_RGB2GRAY);
+						IplImage response = arena.createImage(w, h, IPL_DEPTH_32F, 1);
+						cvCornerHarris(gray, response, side/20, 5, 0.04);
+					} finally {
+						arena.close();
+					}
+				}
+			});
+		} catch (Throwable e) {
+			System.out.printf("%-24s javacv unavailable (%s)   java %9.2f ms\n", name, e.getClass().getSimpleName(), java);
+			return;
+		}
+		System.out.printf("%-24s javacv %9.2f ms   java %9.2f ms   x%.1f\n", name, javacv, java, javacv/java);
+	}
+
+	/*
+	 * Pixel kernels from the old VisionManager, on a heap ByteBuffer.
+	 */
+	private static void legacyTemperature(ByteBuffer buf, int width, int height, int kelvin){
+		int red, blue;
+		for(int x=0;x<width;x++){
+			for(int y=0;y<height;y++){
+				red = (buf.get(y*width*3 + x*3 + 0)&0xff) + kelvin;
+				blue = (buf.get(y*width*3 + x*3 + 2)&0xff) - kelvin;
+				red = (red > 255)? 255:red;
+				blue = (blue > 255)? 255:blue;
+				red = (red < 0)? 0:red;
+				blue = (blue < 0)? 0:blue;
+				buf.put(y*width*3+x*3 + 0, (byte)red);
+				buf.put(y*width*3+x*3 + 2, (byte)blue);
+			}
+		}
+	}
+
+	private static void legacyBinarize(ByteBuffer buf, ByteBuffer graybuf, int width, int height){
+		int luma;
+		for(int y=0;y<height;y++){
+			for (int x=0;x<width;x++){
+				graybuf.put(y*width + x, (byte)(((buf.get(y*width*3 + x*3)&0xff)*299 + (buf.get(y*width*3 + x*3 + 1)&0xff)*587 + (buf.get(y*width*3 + x*3 + 2)&0xff)*114)/1000));
+			}
+		}
+		for(int y=0;y<height;y++){
+			for (int x=0;x<width;x++){
+				luma = graybuf.get( y*width + x )&0xff;
+				byte v = (luma > 127)? (byte)255:(byte)0;
+				buf.put(y*width*3 + x*3 + 0, v);
+				buf.put(y*width*3 + x*3 + 1, v);
+				buf.put(y*width*3 + x*3 + 2, v);
+			}
+		}
+	}
+
+	private static void legacyGray(ByteBuffer colorbuf, ByteBuffer graybuf, int width, int height, double r, double g, double b){
+		for(int x=0;x<width;x++){
+			for(int y=0;y<height;y++){
+				double ng = (colorbuf.get(y*width*3 + x*3 + 0)&0xff)*r + (colorbuf.get(y*width*3 + x*3 + 1)&0xff)*g + (colorbuf.get(y*width*3 + x*3 + 2)&0xff)*b;
+				graybuf.put(y*width+x, (byte)(int)ng);
+			}
+		}
+	}
+
+	/*
+	 * The old optimalGrayImage: a pass for the means, a pass with Math.pow per sample for the
+	 * deviations, then the projection.
+	 */
+	private static void legacyOptimalGray(ByteBuffer colorbuf, ByteBuffer graybuf, int width, int height, int power){
+		double mu_r = 0, mu_g = 0, mu_b = 0;
+		int c = 0;
+		for(int x=0;x<width;x++){
+			for(int y=0;y<height;y++){
+				mu_r += colorbuf.get(y*width*3 + x*3 + 0)&0xff;
+				mu_g += colorbuf.get(y*width*3 + x*3 + 1)&0xff;
+				mu_b += colorbuf.get(y*width*3 + x*3 + 2)&0xff;
+				c++;
+			}
+		}
+		mu_r /= c;
+		mu_g /= c;
+		mu_b /= c;
+
+		double var_r = 0, var_g = 0, var_b = 0;
+		for(int x=0;x<width;x++){
+			for(int y=0;y<height;y++){
+				var_r += Math.abs(Math.pow((colorbuf.get(y*width*3 + x*3 + 0)&0xff) - mu_r, power));
+				var_g += Math.abs(Math.pow((colorbuf.get(y*width*3 + x*3 + 1)&0xff) - mu_g, power));
+				var_b += Math.abs(Math.pow((colorbuf.get(y*width*3 + x*3 + 2)&0xff) - mu_b, power));
+			}
+		}
+		double tt = var_r + var_g + var_b;
+		legacyGray(colorbuf, graybuf, width, height, var_r/tt, var_g/tt, var_b/tt);
+	}
+
+	public static void main(String[] args) throws IOException{
+		String path = (args.length > 0)? args[0]:"tests/images/DSC_7380.JPG";
+		BufferedImage img = ParallelRaster.threeByte(ImageIO.read(new File(path)));
+		final int width = img.getWidth();
+		final int height = img.getHeight();
+		final int stride = ParallelRaster.stride(img);
+		final byte[] data = ParallelRaster.bytes(img);
+		final ByteBuffer buf = ByteBuffer.wrap(data);
+		final ByteBuffer graybuf = ByteBuffer.allocate(width*height);
+
+		System.out.println(path + ": " + width + "x" + height + ", " + Runtime.getRuntime().availableProcessors() + " cores");
+
+		report("temperature", time(new Task(){
+			public void run(){ legacyTemperature(buf, width, height, 10); }
+		}), time(new Task(){
+			public void run(){ PixelKernels.temperature(data, width, height, stride, 10); }
+		}));
+
+		//the fixed threshold against the local one which replaced it, which does more work
+		report("binarize (Sauvola)", time(new Task(){
+			public void run(){ legacyBinarize(buf, graybuf, width, height); }
+		}), time(new Task(){
+			public void run(){ AdaptiveThreshold.binarize(data, width, height, stride); }
+		}));
+
+		report("gray projection", time(new Task(){
+			public void run(){ legacyGray(buf, graybuf, width, height, 0.3, 0.4, 0.3); }
+		}), time(new Task(){
+			public void run(){ PixelKernels.grayProject(data, width, height, stride, 0.3, 0.4, 0.3); }
+		}));
+
+		report("optimal gray", time(new Task(){
+			public void run(){ legacyOptimalGray(buf, graybuf, width, height, 1); }
+		}), time(new Task(){
+			public void run(){ CornerDetector.optimalGray(data, width, height, stride, 1); }
+		}));
+
+		System.out.println();
+		System.out.println("vector kernels (single thread):");
+		vectorKernels(data, width, height, stride);
+
+		System.out.println();
+		System.out.println("corner front end:");
+		File[] images = (args.length > 0)? new File[]{new File(path)} : new File("tests/images").listFiles();
+		Arrays.sort(images);
+		for(File f: images){
+			BufferedImage page;
+			try {
+				page = ImageIO.read(f);
+			} catch (IOException e) {
+				System.out.printf("%-24s unreadable (%s)\n", f.getName(), e.getMessage());
+				continue;
+			}
+			if (page == null){continue;}
+			cornerFrontEnd(f.getName(), page);
+		}
+	}
+}
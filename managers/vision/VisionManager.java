@@ -1,12 +1,23 @@
 package vision;
 
 import java.awt.image.BufferedImage;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
 import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Dimension;
 import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.geom.Point2D;
 import core.Corners;
 import core.SystemConfiguration;
 
+import javax.imageio.IIOImage;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
 
 import com.googlecode.javacv.cpp.opencv_core.CvMat;
 
@@ -16,6 +27,7 @@ import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 
 import static com.googlecode.javacv.cpp.opencv_core.*;
@@ -27,21 +39,71 @@ import static com.googlecode.javacv.cpp.opencv_calib3d.*;
 public class VisionManager {
 	
 	private static final boolean OPENCV_ENABLED = false;
+
+	/*
+	 * Compute the warpage field with the direct (quadratic) accumulation instead of
+	 * the FFT convolution. Only useful for checking the two against each other.
+	 */
+	private static final boolean EXACT_WARPAGE = false;
+	
+	/*
+	 * How far (in image pixels) snapCorner looks for a corner by default.
+	 */
+	public static final int SNAP_RADIUS = 16;
+	
+	/*
+	 * Longest side of the thumbnail corners are detected on.
+	 */
+	private static final int CORNER_DETECTION_SIDE = 200;
+	
+	/*
+	 * Longest side (at least) to decode raw files at for findCorners(String, BufferedImage);
+	 * twice the detection side so the area resize down to it has something to average.
+	 */
+	public static final int CORNER_DECODE_SIDE = 2*CORNER_DETECTION_SIDE;
+	
+	/*
+	 * Least share of the frame a detected page has to cover; anything smaller is more likely a
+	 * picture or a block of text on the page than the page itself, and the whole frame is used.
+	 */
+	private static final double MIN_PAGE_SHARE = 0.2;
+	
+	private static final double HARRIS_K = 0.04;
+
+	/*
+	 * Estimate good values for the configuration dictionary for a raw image, taking the whole
+	 * image to be the page.
+	 */
+	public static ConfigurationDictionary estimateConfigurationValues(BufferedImage img){
+		return estimateConfigurationValues(img, new Corners(new Point(0,0), new Point(img.getWidth(),0), new Point(0,img.getHeight()), new Point(img.getWidth(),img.getHeight())));
+	}
 	
 	/*
-	 * Estimate good values for the configuration dictionary for a raw image.
+	 * Estimate good values for the configuration dictionary for a raw image (usually a thumbnail)
+	 * whose page has the given corners, in img's coordinates.
 	 * Only call once on import.
 	 * ConfigurationDictionary specifies the transformations done by imageGlobalTransform.
-	 * TODO: guesses for the temperature, flippedness, decide which other things to enable by default
+	 * The rotation is guessed from the page's text (see OrientationEstimator); flips stay off,
+	 * since a page turned upside down is a rotation rather than a mirror image. Temperature and
+	 * contrast boost come from a sparse sample of the page (see ColorEstimator).
+	 * A larger image than a thumbnail is shrunk to one first, since the estimates look at no more.
 	 */
-	public static ConfigurationDictionary estimateConfigurationValues(BufferedImage img){
+	public static ConfigurationDictionary estimateConfigurationValues(BufferedImage img, Corners corners){
+		if (Math.max(img.getWidth(), img.getHeight()) > 2*CORNER_DECODE_SIDE){
+			BufferedImage thumbnail = CornerDetector.resizeArea(img, CORNER_DECODE_SIDE);
+			return estimateConfigurationValues(thumbnail, scaleCorners(corners, (double)thumbnail.getWidth() / img.getWidth(), (double)thumbnail.getHeight() / img.getHeight()));
+		}
+		
 		ConfigurationDictionary cd = new ConfigurationDictionary();
+		ColorEstimator samples = ColorEstimator.sample(img, corners);
 		
 		try {
-			cd.setKey(new ConfigurationValue(ConfigurationValue.ValueType.ContrastBoost, false));
+			cd.setKey(new ConfigurationValue(ConfigurationValue.ValueType.ColorTemperature, samples.temperature()));
+			cd.setKey(new ConfigurationValue(ConfigurationValue.ValueType.ContrastBoost, samples.lowContrast()));
 			cd.setKey(new ConfigurationValue(ConfigurationValue.ValueType.BilateralFilter, false));
 			cd.setKey(new ConfigurationValue(ConfigurationValue.ValueType.FlipHorizontal, false));
 			cd.setKey(new ConfigurationValue(ConfigurationValue.ValueType.FlipVertical, false));
+			cd.setKey(new ConfigurationValue(ConfigurationValue.ValueType.Rotation, OrientationEstimator.estimate(HomographyWarp.warp(img, corners, idealizedReprojection(corners)))));
 		} catch (InvalidTypingException e) {
 			System.err.println("InvalidTypingException while setting up ConfigurationDictionary.");
 		}
@@ -49,12 +111,31 @@ public class VisionManager {
 		return cd;
 	}
 	
+	/*
+	 * As estimateConfigurationValues(thumbnail, corners), for corners in the coordinates of the
+	 * raw file at rawPath rather than of its thumbnail.
+	 */
+	public static ConfigurationDictionary estimateConfigurationValues(String rawPath, BufferedImage thumbnail, Corners corners){
+		Dimension full;
+		try {
+			full = ImageDecoder.size(rawPath);
+		} catch (IOException e) {
+			return estimateConfigurationValues(thumbnail);
+		}
+		return estimateConfigurationValues(thumbnail, scaleCorners(corners, (double)thumbnail.getWidth() / full.width, (double)thumbnail.getHeight() / full.height));
+	}
+	
 	/*
 	 * Given a user point in the raw image snap it to a close, but slightly more accurate point.
-	 * TODO: implement!
+	 * Only the window within radius pixels of the point is looked at (see CornerRefiner).
 	 */
+	public static Point snapCorner(BufferedImage img, Point point, int radius){
+		Point2D.Double refined = CornerRefiner.refine(img, point.x, point.y, radius);
+		return new Point((int)Math.round(refined.x), (int)Math.round(refined.y));
+	}
+	
 	public static Point snapCorner(BufferedImage img, Point point){
-		return point;
+		return snapCorner(img, point, SNAP_RADIUS);
 	}
 	
 	/*
@@ -92,200 +173,109 @@ public class VisionManager {
 	
 	/*
 	 * Return the image after applying global transformations and the homography implicit in the four corners.
-	 * The result will be a flat, pretty page.
+	 * The result will be a flat, pretty page. The warp itself is done in Java (see HomographyWarp), so this
+	 * works with or without OpenCV.
+	 * 
+	 * The flips and rotation are part of the warp and everything else is applied to the warped page, so the warp of
+	 * an image is kept (see WarpCache) and edits which only change colors or filters don't redo it.
 	 */
 	public static BufferedImage rerenderImage(BufferedImage img, Corners corners, ConfigurationDictionary config){
-		if (!SystemConfiguration.OPENCV_ENABLED){return img;}
-		
-		IplImage image = BufferedImageToIplImage(img);
-		image = _imageGlobalTransforms(image, config);
-		
-    	Corners reprojected = idealizedReprojection(corners);
-        
-    	IplImage transformed = cvCreateImage(cvSize(reprojected.width(), reprojected.height()), IPL_DEPTH_8U, 3);
-    	
-    	CvMat homography = cvCreateMat(3,3,CV_64F);
-    	CvMat source_points = cornersToMat(corners);
-    	CvMat dest_points = cornersToMat(reprojected);
-
-    	cvFindHomography(source_points, dest_points, homography);
-    	cvWarpPerspective(image, transformed, homography, CV_INTER_LINEAR+CV_WARP_FILL_OUTLIERS, cvScalarAll(0));
-		
-		return IplImageToBufferedImage(transformed);
+		return rerenderImage(img, corners, config, PixelFormat.RGB);
 	}
 	
 	/*
-	 * Applies temperature correction to an image.
+	 * rerenderImage, producing an image in the given format. BITONAL pages are thresholded with
+	 * AdaptiveThreshold whether or not the configuration binarizes, and despeckled (see
+	 * rerenderBitonal).
 	 */
-	private static IplImage applyTemperatureCorrection(IplImage img, ConfigurationValue temp){
-		int kelvin = (Integer)temp.value();
-		int redshift = kelvin;
-		int blueshift = -kelvin;
-		
-		int blue;
-		int red;
-		final ByteBuffer buf = img.getByteBuffer();
-		
-		for(int x=0;x<img.width();x++){
-			for(int y=0;y<img.height();y++){
-				
-				red = (buf.get(y*img.width()*3 + x*3 + 0)&0xff) + redshift;
-				blue = (buf.get(y*img.width()*3 + x*3 + 2)&0xff) + blueshift;			
-				
-				red = (red > 255)? 255:red;
-				blue = (blue > 255)? 255:blue;
-				red = (red < 0)? 0:red;
-				blue = (blue < 0)? 0:blue;
-				
-				buf.put(y*img.width()*3+x*3 + 0, (byte)red);
-				buf.put(y*img.width()*3+x*3 + 2, (byte)blue);
-			}
+	public static BufferedImage rerenderImage(BufferedImage img, Corners corners, ConfigurationDictionary config, PixelFormat format){
+		if (format == PixelFormat.BITONAL){
+			return rerenderBitonal(img, corners, config).toImage();
 		}
-
-		return img;
+		TransformPipeline pipeline = TransformPipeline.compile(config);
+		BufferedImage filtered = warpAndFilter(img, corners, pipeline);
+		BufferedImage rendered = pipeline.applyThreshold(filtered);
+		return (format == PixelFormat.GRAY)? toGray(rendered) : rendered;
 	}
 	
 	/*
-	 * Flips an image. Handles both vertical and horizontal flips (reads the relevant type from the ConfigurationValue)
+	 * Render a page as black and white runs: rerenderImage up to the threshold, then toBitonal
+	 * of its luma.
 	 */
-	private static IplImage applyFlipCorrection(IplImage img, ConfigurationValue flip){
-		if (!(Boolean)flip.value()){return img;}
-		int flipmode = 1;
-		if (flip.type == ConfigurationValue.ValueType.FlipVertical){
-			flipmode = 0;
-		}
-		cvFlip(img, img, flipmode);
-		return img;
+	public static BitonalImage rerenderBitonal(BufferedImage img, Corners corners, ConfigurationDictionary config){
+		return toBitonal(toGray(warpAndFilter(img, corners, TransformPipeline.compile(config))));
 	}
 	
-	
 	/*
-	 * Binarize the image, that is move near-white to white and near-black to black.
+	 * The Sauvola threshold (see AdaptiveThreshold) of an image's luma, with specks of
+	 * BitonalImage.SPECKLE_AREA pixels or fewer removed. Given a page rendered as GRAY, this is
+	 * the page rerenderBitonal would give, without rendering it again.
 	 */
-	private static IplImage applyBinarization(IplImage img, ConfigurationValue binarize){
-		if (!(Boolean)binarize.value()){ return img;}
-		
-		IplImage gray = cvCreateImage(cvSize(img.width(), img.height()), IPL_DEPTH_8U, 1);
-    	cvCvtColor(img, gray, CV_RGB2GRAY);
-		
-		final ByteBuffer graybuf = gray.getByteBuffer();
-		final ByteBuffer buf = img.getByteBuffer();
-		
-		int luma;
-		for(int y=0;y<img.height();y++){
-			for (int x=0;x<img.width();x++){
-				luma = graybuf.get( y*img.width() + x )&0xff;
-				
-				if (luma > 127){
-					buf.put(y*img.width()*3 + x*3 + 0, (byte)255 );
-					buf.put(y*img.width()*3 + x*3 + 1, (byte)255 );
-					buf.put(y*img.width()*3 + x*3 + 2, (byte)255 );
-				}else{
-					buf.put(y*img.width()*3 + x*3 + 0, (byte)0 );
-					buf.put(y*img.width()*3 + x*3 + 1, (byte)0 );
-					buf.put(y*img.width()*3 + x*3 + 2, (byte)0 );
-				}
-			}
-		}
-		
-		return img;
+	public static BitonalImage toBitonal(BufferedImage img){
+		BufferedImage gray = (img.getType() == BufferedImage.TYPE_BYTE_GRAY)? img : toGray(img);
+		int width = gray.getWidth();
+		int height = gray.getHeight();
+		byte[] luma = (byte[])gray.getRaster().getDataElements(0, 0, width, height, null);
+		byte[] levels = AdaptiveThreshold.threshold(luma, width, height, AdaptiveThreshold.radius(width, height), AdaptiveThreshold.K);
+		return BitonalImage.fromLevels(levels, width, height).despeckle();
 	}
 	
 	/*
-	 * Apply a contrast boost by equalizing the image in grayscale & reapplying that
-	 * relative difference in the luma channel. Also see alternative algorithm (faster,
-	 * but has chroma artifacts.)
+	 * The page warped (through WarpCache) with everything but the threshold applied.
 	 */
-	private static IplImage applyContrastBoost(IplImage img, ConfigurationValue boost){
-		System.out.println("Thinking of boosting the contrast...");
-		if (!(Boolean)boost.value()){System.out.println("Nah, nevermind."); return img;}
-		System.out.println("I'm doing it!");
-		
-		IplImage gray = cvCreateImage(cvSize(img.width(), img.height()), IPL_DEPTH_8U, 1);
-    	cvCvtColor(img, gray, CV_RGB2GRAY);
-		cvEqualizeHist(gray, gray);
-		
-		IplImage hsl = cvCreateImage(cvSize(img.width(), img.height()), IPL_DEPTH_8U, 3);
-		cvCvtColor(img, hsl, CV_RGB2HLS);
-		
-		final ByteBuffer graybuf = gray.getByteBuffer();
-		final ByteBuffer hslbuf = hsl.getByteBuffer();
-		
-		byte equalized;
-		
-		for(int y=0;y<img.height();y++){
-			for (int x=0;x<img.width();x++){
-				equalized = graybuf.get( y*img.width() + x );
-				hslbuf.put(y*img.width()*3 + x*3 + 1, equalized );
-			}
-		}
-		
-		
-		cvCvtColor(hsl, img, CV_HLS2RGB);
-		
-		//alternate algorithm balancing each channel separately. leads to weird chroma artifacts.
-		/*IplImage ch1 = cvCreateImage(cvSize(img.width(), img.height()), IPL_DEPTH_8U, 1);
-		IplImage ch2 = cvCreateImage(cvSize(img.width(), img.height()), IPL_DEPTH_8U, 1);
-		IplImage ch3 = cvCreateImage(cvSize(img.width(), img.height()), IPL_DEPTH_8U, 1);
-		cvSplit(img, ch1, ch2, ch3, null);
-		
-		cvEqualizeHist(ch1, ch1);
-		cvEqualizeHist(ch2, ch2);
-		cvEqualizeHist(ch3, ch3);
-		
-		cvMerge(ch1, ch2, ch3, null, img);*/
-		
-		return img;
+	private static BufferedImage warpAndFilter(BufferedImage img, Corners corners, TransformPipeline pipeline){
+		Corners reprojected = idealizedReprojection(corners);
+		BufferedImage warped = WarpCache.warp(img, corners, reprojected, pipeline.flipHorizontal(), pipeline.flipVertical(), pipeline.rotation());
+		return applyFilters(warped, pipeline.withoutFlipsOrRotation());
 	}
 	
 	/*
-	 * Applies a bilateral filter to the image
-	 * TODO: returns a black image!, prohibitively slow.
+	 * The luma of a 3 channel image as an 8 bit gray image.
 	 */
-	private static IplImage applyBilateralFilter(IplImage img, ConfigurationValue filter){
-		if (!(Boolean)filter.value()){return img;}
-		IplImage nimg = cvCloneImage(img);
-		cvSmooth(img, nimg, CV_BILATERAL, 5);
-		return nimg;
+	private static BufferedImage toGray(BufferedImage img){
+		BufferedImage color = ParallelRaster.threeByte(img);
+		int width = color.getWidth();
+		int height = color.getHeight();
+		byte[] gray = PixelKernels.gray(ParallelRaster.bytes(color), width, height, ParallelRaster.stride(color));
+		BufferedImage out = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+		System.arraycopy(gray, 0, ParallelRaster.bytes(out), 0, gray.length);
+		return out;
 	}
 	
 	/*
-	 * Internal implementation of global transforms using IplImage (to avoid the transformation)
+	 * Apply global transformations to an image as specified by the ConfigurationDictionary.
+	 * This image is the one which should be shown in edit mode. It does not need to be applied before
+	 * calling rerenderImage (as rerender does it interally.)
+	 * 
+	 * The per-pixel settings are compiled into a single pass (see TransformPipeline); only the
+	 * neighbourhood filters need a second one.
 	 */
-	private static IplImage _imageGlobalTransforms(IplImage img, ConfigurationDictionary config){
+	public static BufferedImage imageGlobalTransforms(BufferedImage img, ConfigurationDictionary config){
 		if (config == null){return img;}
 		
-		img = cvCloneImage(img);
-		
-		for(Object _name: config.getAllKeys()){
-			String name = (String)_name;
-			ConfigurationValue currentValue = config.getKeyWithName(name);
-			
-			if (currentValue.type == ConfigurationValue.ValueType.ColorTemperature){
-				img = applyTemperatureCorrection(img, currentValue);
-			}
-			else if (currentValue.type == ConfigurationValue.ValueType.FlipHorizontal ||
-					currentValue.type == ConfigurationValue.ValueType.FlipVertical){
-				img = applyFlipCorrection(img, currentValue);
-			}else if (currentValue.type == ConfigurationValue.ValueType.ContrastBoost){
-				img = applyContrastBoost(img, currentValue);
-			}else if (currentValue.type == ConfigurationValue.ValueType.BilateralFilter){
-				img = applyBilateralFilter(img, currentValue);
-			}else{
-				System.err.println("A type in a ConfigurationDictionary given to recolorImage() is invalid and non-processable.");
-			}
-		}
-		return img;
+		return applyPipeline(img, TransformPipeline.compile(config));
 	}
 	
 	/*
-	 * Apply global transformations to an image as specified by the ConfigurationDictionary.
-	 * This image is the one which should be shown in edit mode. It does not need to be applied before
-	 * calling rerenderImage (as rerender does it interally.)
+	 * The point operations, then the filters, then the threshold. Returns a new image.
 	 */
-	public static BufferedImage imageGlobalTransforms(BufferedImage img, ConfigurationDictionary config){
-		if (!SystemConfiguration.OPENCV_ENABLED){return img;}
-		return IplImageToBufferedImage( _imageGlobalTransforms(BufferedImageToIplImage(img), config) );
+	private static BufferedImage applyPipeline(BufferedImage img, TransformPipeline pipeline){
+		return pipeline.applyThreshold(applyFilters(img, pipeline));
+	}
+	
+	/*
+	 * The point operations and the filters of pipeline, but not the threshold, into a new image.
+	 */
+	private static BufferedImage applyFilters(BufferedImage img, TransformPipeline pipeline){
+		BufferedImage out = pipeline.applyPointOperations(img);
+		byte[] data = ParallelRaster.bytes(out);
+		if (pipeline.bilateralFilter()){
+			BilateralGrid.filter(data, out.getWidth(), out.getHeight(), ParallelRaster.stride(out));
+		}
+		if (pipeline.contrastBoost()){
+			Clahe.equalize(data, out.getWidth(), out.getHeight(), ParallelRaster.stride(out));
+		}
+		return out;
 	}
 	
 	/*
@@ -293,67 +283,150 @@ public class VisionManager {
 	 */
 	public static Corners findCorners(BufferedImage img){
 		Corners defaultCorners = new Corners(new Point(0,0), new Point(img.getWidth(),0), new Point(0,img.getHeight()), new Point(img.getWidth(),img.getHeight()));
-		if (!SystemConfiguration.OPENCV_ENABLED){return defaultCorners;}
 		
-		IplImage image = BufferedImageToIplImage(img);
+		Corners rough = detectCorners(img);
+		if (rough == null){return defaultCorners;}
 		
-		IplImage mini = resizeMaxSide(image, 200);
-    	final ByteBuffer minibuf = mini.getByteBuffer();
-    	
-    	IplImage gray = optimalGrayImage(mini, 1);
-    	IplImage gray_original = cvCloneImage(gray);
-    		
-    	ArrayList<MergeZone> merged = findPotentialZones(gray);
+		int radius = refineRadius(img.getWidth(), img.getHeight());
+		return new Corners(
+				snapCorner(img, rough.upleft(), radius),
+				snapCorner(img, rough.upright(), radius),
+				snapCorner(img, rough.downleft(), radius),
+				snapCorner(img, rough.downright(), radius)
+		);
+	}
+	
+	/*
+	 * Corners of the page in the image file at rawPath, without decoding all of it: detection
+	 * runs on thumbnail (see loadImage(path, maxSide)), and each corner is then refined on a
+	 * small full resolution region read around it.
+	 */
+	public static Corners findCorners(String rawPath, BufferedImage thumbnail) throws IOException{
+		Dimension full;
+		try {
+			full = ImageDecoder.size(rawPath);
+		} catch (IOException e) {
+			//not something ImageIO reads; do it the expensive way
+			return findCorners(loadImage(rawPath));
+		}
+		Corners defaultCorners = new Corners(new Point(0,0), new Point(full.width,0), new Point(0,full.height), new Point(full.width,full.height));
+		
+		Corners rough = detectCorners(thumbnail);
+		if (rough == null){return defaultCorners;}
+		
+		double xscale = (double)full.width / thumbnail.getWidth();
+		double yscale = (double)full.height / thumbnail.getHeight();
+		int radius = refineRadius(full.width, full.height);
+		
+		//decoding a region costs decoding every row above it, so read each pair of corners in one go
+		Point[] up = refineInFile(rawPath, scalePoint(rough.upleft(), xscale, yscale), scalePoint(rough.upright(), xscale, yscale), radius);
+		Point[] down = refineInFile(rawPath, scalePoint(rough.downleft(), xscale, yscale), scalePoint(rough.downright(), xscale, yscale), radius);
+		return new Corners(up[0], up[1], down[0], down[1]);
+	}
+	
+	/*
+	 * Unrefined corners in img's coordinates, found on a CORNER_DETECTION_SIDE thumbnail of it.
+	 * Null if there's nothing to go on, or if the best quad isn't a plausible page (see
+	 * plausibleCorners).
+	 */
+	private static Corners detectCorners(BufferedImage img){
+		int miniWidth, miniHeight;
+		ArrayList<MergeZone> merged;
+		if (SystemConfiguration.OPENCV_ENABLED){
+			NativeArena arena = NativeArena.open();
+			try {
+				IplImage mini = resizeMaxSide(arena, BufferedImageToIplImage(arena, img), CORNER_DETECTION_SIDE);
+				IplImage gray = optimalGrayImage(arena, mini, 1);
+				merged = findPotentialZones(arena, gray);
+				miniWidth = mini.width();
+				miniHeight = mini.height();
+			} finally {
+				arena.close();
+			}
+		}else{
+			//same front end in Java
+			BufferedImage mini = CornerDetector.resizeArea(img, CORNER_DETECTION_SIDE);
+			miniWidth = mini.getWidth();
+			miniHeight = mini.getHeight();
+			byte[] gray = CornerDetector.optimalGray(ParallelRaster.bytes(mini), miniWidth, miniHeight, ParallelRaster.stride(mini), 1);
+			float[] response = CornerDetector.harris(gray, miniWidth, miniHeight, harrisBlockSize(miniWidth, miniHeight), HARRIS_K);
+			merged = zonesFromResponse(response, miniWidth, miniHeight);
+		}
     	
     	if (merged.size() < 4){
-    		return defaultCorners;
+    		return null;
     	}//solve for the 4th corner when we have 3?
     	
-    	Corners mini_corners;
-    	
-    	if (merged.size() > 20){
-    		while(merged.size() > 4){
-    			merged.remove( merged.size()-1 );
-    		}
-    		mini_corners = pointsToCorners(merged);
-    	}else{
-	    	ArrayList<PotentialCorners> potentialSet = new ArrayList<PotentialCorners>();
-			
-			for(int c1=0;c1<merged.size();c1++){
-				for(int c2=c1+1;c2<merged.size();c2++){
-					for(int c3=c2+1;c3<merged.size();c3++){
-						for(int c4=c3+1;c4<merged.size();c4++){
-							ArrayList<MergeZone> ccs = new ArrayList<MergeZone>();
-							ccs.add(merged.get(c1));
-							ccs.add(merged.get(c2));
-							ccs.add(merged.get(c3));
-							ccs.add(merged.get(c4));
-							
-							PotentialCorners pc = new PotentialCorners();
-							pc.corners = pointsToCorners(ccs);
-							pc.metrics();
-							
-							potentialSet.add(pc);
-	        			}
-	    			}
-				}
-			}
-			Collections.sort(potentialSet);
-			
-			mini_corners = potentialSet.get(0).corners;
+    	List<MergeZone> quad = QuadSearch.bestQuad(merged);
+    	if (quad == null){
+    		//nothing convex; fall back on the strongest four
+    		quad = new ArrayList<MergeZone>(merged.subList(0, 4));
+    	}
+    	Corners mini_corners = pointsToCorners(quad);
+    	if (!plausibleCorners(mini_corners, miniWidth, miniHeight)){
+    		return null;
     	}
 		
-		double xscale = image.width() / mini.width();
-		double yscale = image.height() / mini.height();
-		
-		Corners corners = new Corners( 
-				new Point((int) (mini_corners.upleft().x*xscale), (int) (mini_corners.upleft().y*yscale)),
-				new Point((int) (mini_corners.upright().x*xscale), (int) (mini_corners.upright().y*yscale)),
-				new Point((int) (mini_corners.downleft().x*xscale), (int) (mini_corners.downleft().y*yscale)),
-				new Point((int) (mini_corners.downright().x*xscale), (int) (mini_corners.downright().y*yscale))
-		);
-		
-		return corners;
+		double xscale = (double)img.getWidth() / miniWidth;
+		double yscale = (double)img.getHeight() / miniHeight;
+		return scaleCorners(mini_corners, xscale, yscale);
+	}
+	
+	/*
+	 * Whether corners make a page outline: going around them (upleft, upright, downright,
+	 * downleft) turns the same way at every corner, so the quad is convex and no two of its sides
+	 * cross, and it covers at least MIN_PAGE_SHARE of a width x height frame.
+	 */
+	private static boolean plausibleCorners(Corners corners, int width, int height){
+		Point[] quad = { corners.upleft(), corners.upright(), corners.downright(), corners.downleft() };
+		double area = 0;
+		for(int i=0;i<4;i++){
+			Point p = quad[i], q = quad[(i+1)%4], r = quad[(i+2)%4];
+			double turn = (double)(q.x-p.x)*(r.y-q.y) - (double)(q.y-p.y)*(r.x-q.x);
+			if (turn <= 0){return false;}
+			area += (double)p.x*q.y - (double)q.x*p.y;
+		}
+		return area/2 >= MIN_PAGE_SHARE*width*height;
+	}
+	
+	/*
+	 * A detection thumbnail pixel covers this many full resolution pixels (times 1.5, to look a
+	 * little further than that).
+	 */
+	private static int refineRadius(int width, int height){
+		return (int)Math.ceil(1.5*Math.max(width, height) / CORNER_DETECTION_SIDE);
+	}
+	
+	/*
+	 * Map a pixel to an image scaled by (xscale, yscale), centre to centre.
+	 */
+	private static Point scalePoint(Point p, double xscale, double yscale){
+		return new Point((int)Math.round((p.x+0.5)*xscale - 0.5), (int)Math.round((p.y+0.5)*yscale - 0.5));
+	}
+	
+	/*
+	 * Map corners to an image scaled by (xscale, yscale) (see scalePoint).
+	 */
+	private static Corners scaleCorners(Corners corners, double xscale, double yscale){
+		return new Corners(scalePoint(corners.upleft(), xscale, yscale), scalePoint(corners.upright(), xscale, yscale),
+				scalePoint(corners.downleft(), xscale, yscale), scalePoint(corners.downright(), xscale, yscale));
+	}
+	
+	/*
+	 * Snap two points of the image file at rawPath, reading just the region around them.
+	 */
+	private static Point[] refineInFile(String rawPath, Point a, Point b, int radius) throws IOException{
+		int margin = radius + CornerRefiner.MIN_RADIUS;
+		Rectangle region = new Rectangle(a.x - margin, a.y - margin, 2*margin + 1, 2*margin + 1);
+		region.add(new Rectangle(b.x - margin, b.y - margin, 2*margin + 1, 2*margin + 1));
+		BufferedImage patch = ImageDecoder.decodeRegion(rawPath, region);
+		if (patch == null){return new Point[]{a, b};}
+		
+		int x0 = Math.max(0, region.x);
+		int y0 = Math.max(0, region.y);
+		Point ra = snapCorner(patch, new Point(a.x - x0, a.y - y0), radius);
+		Point rb = snapCorner(patch, new Point(b.x - x0, b.y - y0), radius);
+		return new Point[]{ new Point(ra.x + x0, ra.y + y0), new Point(rb.x + x0, rb.y + y0) };
 	}
 	
 	/*
@@ -395,52 +468,107 @@ public class VisionManager {
 	 * Write a BufferedImage to a given path. (Used for debugging mostly).
 	 */
 	private static void writeImageToFile(BufferedImage img, String path) throws IOException{
-		if (!SystemConfiguration.OPENCV_ENABLED){
+		if (!SystemConfiguration.OPENCV_ENABLED || img.getType() == BufferedImage.TYPE_BYTE_BINARY){
 			File output = new File(path);
 			ImageIO.write(img, "png", output);
 		}else{
-			cvSaveImage(path, BufferedImageToIplImage(img));
+			NativeArena arena = NativeArena.open();
+			try {
+				cvSaveImage(path, BufferedImageToIplImage(arena, img));
+			} finally {
+				arena.close();
+			}
 		}
 	}
 	
 	/*
-	 * Write an image out to a path as a TIFF
+	 * Write an image out to a path as a TIFF. 8 bit gray images are written as gray TIFFs and 1 bit
+	 * images (see PixelFormat) with CCITT Group 4 compression, always through ImageIO.
 	 */
 	public static void writeTIFF(BufferedImage img, String path) throws IOException{
-		if (!SystemConfiguration.OPENCV_ENABLED){
+		if (img.getType() == BufferedImage.TYPE_BYTE_BINARY || img.getType() == BufferedImage.TYPE_BYTE_GRAY){
+			writeTIFF(img, path, (img.getType() == BufferedImage.TYPE_BYTE_BINARY)? "CCITT T.6" : null);
+		}else if (!SystemConfiguration.OPENCV_ENABLED){
 			File output = new File(path);
 			ImageIO.write(img, "tiff", output);
 		}else{
-			cvSaveImage(path, BufferedImageToIplImage(img));
+			NativeArena arena = NativeArena.open();
+			try {
+				cvSaveImage(path, BufferedImageToIplImage(arena, img));
+			} finally {
+				arena.close();
+			}
+		}
+	}
+	
+	/*
+	 * Write img as a TIFF through ImageIO, with the named compression (null for none).
+	 */
+	private static void writeTIFF(BufferedImage img, String path, String compression) throws IOException{
+		Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("tiff");
+		if (!writers.hasNext()){
+			throw new IOException("No ImageIO TIFF writer to write " + path);
+		}
+		ImageWriter writer = writers.next();
+		
+		File output = new File(path);
+		output.delete();
+		ImageOutputStream out = ImageIO.createImageOutputStream(output);
+		try {
+			ImageWriteParam param = writer.getDefaultWriteParam();
+			if (compression != null){
+				param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+				param.setCompressionType(compression);
+			}
+			writer.setOutput(out);
+			writer.write(null, new IIOImage(img, null, null), param);
+		} finally {
+			writer.dispose();
+			out.close();
 		}
 	}
 	
 	/*
 	 * Write a rendered image out to a path. Like calling rerenderImage, but instead of returning it writes the image to a file.
+	 * Binarized pages are written 1 bit deep.
 	 */
 	public static void outputToFile(BufferedImage img, String path, Corners points, ConfigurationDictionary config) throws IOException{
-		writeImageToFile(rerenderImage(img, points, config), path);
+		PixelFormat format = TransformPipeline.compile(config).binarize()? PixelFormat.BITONAL : PixelFormat.RGB;
+		writeImageToFile(rerenderImage(img, points, config, format), path);
 	}
 	
 	/*
 	 * Convert an IplImage to a BufferedImage
 	 */
 	private static BufferedImage IplImageToBufferedImage(IplImage image){
-		return image.getBufferedImage();
+		return NativeBridge.toHeap(image);
 	}
 	
 	/*
-	 * Convert a BufferedImage to an IplImage
-	 * 
-	 * This is inefficient, but it seems to be the best possible (according to the author of javacv)
-	 * http://code.google.com/p/javacv/issues/detail?id=2
+	 * Convert a BufferedImage to an IplImage owned by arena (see NativeBridge)
+	 */
+	private static IplImage BufferedImageToIplImage(NativeArena arena, BufferedImage image){
+		return NativeBridge.toNative(arena, image);
+	}
+	
+	/*
+	 * Load the image at the given path, subsampled so that its longest side is at least
+	 * minSide (and less than twice that). Images ImageIO can't read are loaded in full and
+	 * scaled down.
 	 */
-	private static IplImage BufferedImageToIplImage(BufferedImage image){
-		//BufferedImage bufferedImage = new BufferedImage(image.getWidth(null), image.getHeight(null), BufferedImage.TYPE_3BYTE_BGR);
-		//Graphics g = bufferedImage.getGraphics();
-		//g.drawImage(image, 0, 0, null);
-		//g.dispose();
-		return IplImage.createFrom(image);
+	public static BufferedImage loadImage(String path, int minSide) throws IOException{
+		try {
+			return ImageDecoder.decodeSubsampled(path, minSide);
+		} catch (IOException e) {
+			BufferedImage img = loadImage(path);
+			int factor = Math.max(1, Math.max(img.getWidth(), img.getHeight()) / Math.max(1, minSide));
+			if (factor == 1){return img;}
+			BufferedImage scaled = new BufferedImage(Math.max(1, img.getWidth()/factor), Math.max(1, img.getHeight()/factor), BufferedImage.TYPE_3BYTE_BGR);
+			Graphics g = scaled.getGraphics();
+			g.drawImage(img, 0, 0, scaled.getWidth(), scaled.getHeight(), null);
+			g.dispose();
+			return scaled;
+		}
 	}
 	
 	/*
@@ -451,30 +579,17 @@ public class VisionManager {
 			File input = new File(path);
 			return ImageIO.read(input);
 		}else{
-			return IplImageToBufferedImage(cvLoadImage(path));
+			NativeArena arena = NativeArena.open();
+			try {
+				IplImage loaded = arena.adopt(cvLoadImage(path));
+				if (loaded == null){throw new IOException("Couldn't load image " + path);}
+				return IplImageToBufferedImage(loaded);
+			} finally {
+				arena.close();
+			}
 		}
 	}
 	
-	/*
-	 * Convert a corners object to the matrix form that OpenCV desires
-	 */
-	private static CvMat cornersToMat(Corners c){
-		CvMat points = cvCreateMat(4, 2, CV_64F);
-		points.put(0,0,c.upleft().x);
-		points.put(0,1,c.upleft().y);
-		
-		points.put(1,0,c.upright().x);
-		points.put(1,1,c.upright().y);
-		
-		points.put(2,0,c.downleft().x);
-		points.put(2,1,c.downleft().y);
-		
-		points.put(3,0,c.downright().x);
-		points.put(3,1,c.downright().y);
-		
-		return points;
-	}
-	
 	/*
 	 * CvPoint from x,y
 	 */
@@ -485,268 +600,67 @@ public class VisionManager {
 	}
 	
 	/*
-	 * Linear scaled image from a float array
-	 */
-	private static IplImage linearScaledImage(IplImage scaled){
-		final FloatBuffer scaledbuf = scaled.getByteBuffer().asFloatBuffer();
-		IplImage output = cvCreateImage(cvSize(scaled.width(), scaled.height()), IPL_DEPTH_8U, 1);
-		
-    	float v;
-    	float min = Float.MAX_VALUE;
-    	float max = 0;
-    	for(int i=0;i<scaledbuf.capacity();i++){
-    		v = scaledbuf.get(i);
-    		if (v < min){min=v;}
-    		if (v > max){max=v;}
-    	}
-    	cvConvertScale(scaled, output, 255.0/(max-min), -min);
-    	
-    	return output;
-	}
-	
-	/*
-	 * Custom weights for r,g,b to grayscale.
+	 * Copy the pixels of an IplImage (row padding included) into a byte[] with one bulk read,
+	 * so that the Java kernels don't go through the ByteBuffer for every sample.
 	 */
-	private static IplImage customGrayTransform(IplImage color, double r, double g, double b){
-		IplImage gray = cvCreateImage(cvSize(color.width(), color.height()), IPL_DEPTH_8U, 1);
-		
-		int set = 0;
-		final ByteBuffer graybuf = gray.getByteBuffer();
-		final ByteBuffer colorbuf = color.getByteBuffer();
-		
-		for(int x=0;x<color.width();x++){
-			for(int y=0;y<color.height();y++){
-				
-				double ng = (colorbuf.get(y*color.width()*3 + x*3 + 0)&0xff)*r + (colorbuf.get(y*color.width()*3 + x*3 + 1)&0xff)*g + (colorbuf.get(y*color.width()*3 + x*3 + 2)&0xff)*b;				
-				set = (int)ng;
-				
-				graybuf.put(y*color.width()+x, (byte)set);
-			}
-		}
-		
-		return gray;
+	private static byte[] getBytes(IplImage img){
+		final ByteBuffer buf = img.getByteBuffer();
+		byte[] data = new byte[img.imageSize()];
+		buf.position(0);
+		buf.get(data);
+		return data;
 	}
 	
 	/*
 	 * Return a sorted list of potential corners. Ordered by weight (neighborhood corneriness, & set to 0 if it's in the corner of the image)
 	 */
-	private static ArrayList<MergeZone> findPotentialZones(IplImage gray){
+	private static ArrayList<MergeZone> findPotentialZones(NativeArena arena, IplImage gray){
 		int width = gray.width();
 		int height = gray.height();
-		IplImage edges = cvCreateImage(cvSize(width, height), IPL_DEPTH_32F, 1);
+		IplImage edges = arena.createImage(width, height, IPL_DEPTH_32F, 1);
 		
-		cvCornerHarris(gray, edges, (int) (Math.max(width, height)*0.05), 5, 0.04);
+		cvCornerHarris(gray, edges, harrisBlockSize(width, height), 5, HARRIS_K);
 		final FloatBuffer edgebuf = edges.getByteBuffer().asFloatBuffer();
 		
-		IplImage warpage = cvCreateImage(cvSize(width, height), IPL_DEPTH_32F, 1);
-		final FloatBuffer warpbuf = warpage.getByteBuffer().asFloatBuffer();
-		
-		double[][] warp_arr = new double[width][height];
-		for(int x=0;x<width;x++){
-			for(int y=0;y<height;y++){
-				warp_arr[x][y] = 0;
-			}
-		}
-		
-		float _v;
-		for(int x=0;x<width;x++){
-			for(int y=0;y<height;y++){
-				_v = edgebuf.get(width*y + x);
-				
-				if ( Math.abs(_v) < 1e-4 ){continue;}
-				
-				for(int wx=0;wx<width;wx++){
-					for(int wy=0;wy<height;wy++){
-						if (x==wx && y==wy){continue;}
-						warp_arr[wx][wy] += _v/Math.sqrt((wx-x)*(wx-x) + (wy-y)*(wy-y));
-					}
-				}
-				
-			}
-		}
-		
-		for(int x=0;x<width;x++){
-			for(int y=0;y<height;y++){
-				warpbuf.put( y*width+x, (float)warp_arr[x][y] );
-			}
-		}
-		
-		//cluster some points!
-		ArrayList<Point> points = new ArrayList<Point>();
-		
-		for(int x=0;x<width;x+=5){
-			for(int y=0;y<height;y+=5){
-				points.add( new Point(x,y) );
-			}
-		}
-		
-		int round = 0;
-		int last_still_round = 0;
-		double motion;
-		while(round-last_still_round < 5 && round < 500){
-			motion = 0;
-			for(Point p: points){
-				float current = warpbuf.get( p.y*width + p.x );
-				Point best = p;
-				
-				for(int sx=-1;sx<=1;sx++){
-					for(int sy=-1;sy<=1;sy++){
-						if ((sx==0&&sy==0) || p.x+sx < 0 || p.y+sy < 0 || p.x+sx >= width || p.y+sy >= height){continue;}
-						
-						float newpoint = warpbuf.get( (p.y+sy)*width + p.x+sx );
-						if (newpoint > current){
-							best = new Point(p.x+sx, p.y+sy);
-						}
-					}
-				}
-				motion += Math.sqrt( (p.x-best.x)*(p.x-best.x) + (p.y-best.y)*(p.y-best.y) );
-				
-				p.x = best.x;
-				p.y = best.y;
-			}
-			
-			if (motion >= 1){
-				last_still_round = round;
-			}
-			
-			round++;
-		}
-		System.out.println(round + " rounds");
-		
-		
-		//integrate the warped image
-		IplImage integral = cvCloneImage(warpage);
-		final FloatBuffer integralbuf = integral.getByteBuffer().asFloatBuffer();
-		
-		//integralbuf.put( 0, Math.abs(integralbuf.get(0)) );
-		for(int i=1;i<width;i++){
-			//integralbuf.put(i, Math.abs(integralbuf.get(i)) + integralbuf.get(i-1));
-			integralbuf.put(i, Math.abs(integralbuf.get(i)) + integralbuf.get(i-1));
-		}for(int i=1;i<height;i++){
-			//integralbuf.put(i*width, Math.abs(integralbuf.get(i*width)) + integralbuf.get((i-1)*width));
-			integralbuf.put(i*width, Math.abs(integralbuf.get(i*width)) + integralbuf.get((i-1)*width));
-		}
-		for(int y=1;y<height;y++){
-			for(int x=1;x<width;x++){
-				//integralbuf.put(y*width+x, Math.abs(integralbuf.get(y*width+x)) + integralbuf.get((y-1)*width+x) + integralbuf.get(y*width+x-1) - integralbuf.get((y-1)*width+x-1));
-				integralbuf.put(y*width+x, integralbuf.get(y*width+x) + integralbuf.get((y-1)*width+x) + integralbuf.get(y*width+x-1) - integralbuf.get((y-1)*width+x-1));
-			}
-		}
-		
-		//extract the points
-		ArrayList<MergeZone> merged = new ArrayList<MergeZone>();
-		for(Point p: points){
-			boolean already_inserted = false;
-			for(MergeZone pp: merged){
-				if ( pp.distance(p) < 5 ){
-					already_inserted = true;
-					break;
-				}
-			}
-			
-			if (!already_inserted){
-				merged.add(new MergeZone(p));
-			}
-		}
-		System.out.println(merged.size() + " merged points");
-		
-		for(MergeZone pp: merged){
-			Point p = pp.point;
-			
-			int yl = Math.max(0,p.y-3);
-			int xl = Math.max(0,p.x-3);
-			int yr = Math.min(p.y+3,height-1);
-			int xr = Math.min(p.x+3,width-1);
-			
-			pp.weight = integralbuf.get(yl*width+xl) + integralbuf.get(yr*width+xr) - integralbuf.get(yl*width+xr) - integralbuf.get(yr*width+xl);
-			//pp.weight /= (yr-yl) * (xr-xl);
-			
-			if (pp.distance(new Point(0,0)) < 3 || pp.distance(new Point(width,0)) < 3 || pp.distance(new Point(0,height)) < 3 || pp.distance(new Point(width,height)) < 3){
-				pp.weight = -1e100;
-			}
-			
-		}
-		Collections.sort( merged );
-		
-		//debugging
-		//TODO: remove
-		/*
-		warpage = linearScaledImage(warpage);
-		for(MergeZone pp: merged){
-			Point p = pp.point;
-			
-			cvCircle(warpage, makePoint(p.x,p.y), 1, CV_RGB(255,255,255), 1, 8, 0);
-    		cvCircle(gray, makePoint(p.x,p.y), 1, CV_RGB(255,255,255), 1, 8, 0);
-    	}
-		
-		cvSaveImage("gray.png", gray);
-		cvSaveImage("warpage.png", warpage);
-		cvSaveImage("integral.png", linearScaledImage(integral));
-		*/
-		return merged;
+		float[] edge_arr = new float[width*height];
+		edgebuf.get(edge_arr);
+		return zonesFromResponse(edge_arr, width, height);
+	}
+	
+	/*
+	 * Candidate zones from a row-major Harris response: the local maxima of its warpage field.
+	 */
+	private static ArrayList<MergeZone> zonesFromResponse(float[] response, int width, int height){
+		float[] warpage = WarpField.compute(response, width, height, EXACT_WARPAGE);
+		return PeakFinder.findPeaks(warpage, width, height);
+	}
+	
+	private static int harrisBlockSize(int width, int height){
+		return (int) (Math.max(width, height)*0.05);
 	}
 	
 	/*
 	 * Get a gray image weighted with the variance of the color channels.
 	 */
-	private static IplImage optimalGrayImage(IplImage color, int power){
-		final ByteBuffer colorbuf = color.getByteBuffer();
+	private static IplImage optimalGrayImage(NativeArena arena, IplImage color, int power){
 		int width = color.width();
 		int height = color.height();
+		byte[] graydata = CornerDetector.optimalGray(getBytes(color), width, height, color.widthStep(), power);
 		
-		double mu_r = 0;
-		double mu_g = 0;
-		double mu_b = 0;
-		int c = 0;
-		
-		for(int x=0;x<width;x++){
-			for(int y=0;y<height;y++){
-				mu_r += colorbuf.get(y*width*3 + x*3 + 0)&0xff;
-				mu_g += colorbuf.get(y*width*3 + x*3 + 1)&0xff;
-				mu_b += colorbuf.get(y*width*3 + x*3 + 2)&0xff;
-				c++;
-			}
-		}
-		mu_r /= c;
-		mu_g /= c;
-		mu_b /= c;
-		
-		double var_r = 0;
-		double var_g = 0;
-		double var_b = 0;
-		
-		for(int x=0;x<width;x++){
-			for(int y=0;y<height;y++){
-				var_r += Math.abs(Math.pow((colorbuf.get(y*width*3 + x*3 + 0)&0xff) - mu_r, power));
-				var_g += Math.abs(Math.pow((colorbuf.get(y*width*3 + x*3 + 1)&0xff) - mu_g, power));
-				var_b += Math.abs(Math.pow((colorbuf.get(y*width*3 + x*3 + 2)&0xff) - mu_b, power));
-			}
+		//the gray image may have padded rows
+		IplImage gray = arena.createImage(width, height, IPL_DEPTH_8U, 1);
+		final ByteBuffer graybuf = gray.getByteBuffer();
+		for(int y=0;y<height;y++){
+			graybuf.position(y*gray.widthStep());
+			graybuf.put(graydata, y*width, width);
 		}
-		var_r /= c;
-		var_g /= c;
-		var_b /= c;
-		
-		System.out.println("Averages:");
-		System.out.println(mu_r);
-		System.out.println(mu_g);
-		System.out.println(mu_b);
-		System.out.println("Variances:");
-		System.out.println(var_r);
-		System.out.println(var_g);
-		System.out.println(var_b);
-		
-		double tt = var_r + var_g + var_b;
-		IplImage gray = customGrayTransform(color, var_r/tt, var_g/tt, var_b/tt);
 		return gray;
 	}
-	private static IplImage optimalGrayImage(IplImage color){
-		return optimalGrayImage(color, 2);
-	}
 	
 	/*
 	 * Resize to be at most maxSide on the longest side
 	 */
-	private static IplImage resizeMaxSide(IplImage image, int maxSide){
+	private static IplImage resizeMaxSide(NativeArena arena, IplImage image, int maxSide){
     	int nw = 0;
     	int nh = 0;
     	if (image.width() > image.height()){
@@ -757,15 +671,117 @@ public class VisionManager {
     		nw = (int) ((image.width()*1.0/image.height())*nh);
     	}
     	
-    	IplImage mini = cvCreateImage(cvSize(nw, nh), IPL_DEPTH_8U, 3);
+    	IplImage mini = arena.createImage(nw, nh, IPL_DEPTH_8U, 3);
     	cvResize(image, mini, CV_INTER_AREA);
     	return mini;
 	}
 	
+	/*
+	 * A width x height page of lines of black text on white, for the orientation tests.
+	 */
+	private static BufferedImage textPage(int width, int height, int fontSize, double spacing){
+		String[] words = ("It is a truth universally acknowledged, that a single man in possession of a good fortune, must be in want of a wife. "
+				+ "However little known the feelings or views of such a man may be on his first entering a neighbourhood, this truth is so well fixed "
+				+ "in the minds of the surrounding families, that he is considered the rightful property of some one or other of their daughters.").split(" ");
+		BufferedImage page = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+		Graphics2D g = page.createGraphics();
+		g.setColor(Color.WHITE);
+		g.fillRect(0, 0, width, height);
+		g.setColor(Color.BLACK);
+		g.setFont(new Font("Monospaced", Font.PLAIN, fontSize));
+		FontMetrics metrics = g.getFontMetrics();
+		int margin = width/10;
+		int x = margin, y = margin + metrics.getAscent();
+		for(int i=0;y < height - margin;i = (i+1) % words.length){
+			String word = words[i] + " ";
+			if (x + metrics.stringWidth(word) > width - margin){
+				x = margin;
+				y += (int)Math.round(fontSize*spacing);
+			}
+			g.drawString(word, x, y);
+			x += metrics.stringWidth(word);
+		}
+		g.dispose();
+		return page;
+	}
+	
 	@SuppressWarnings("unused")
 	public static void main(String[] args) throws IOException, InvalidTypingException{
 		//Tests!
 		
+		//the checks up to the native ones below take the Java paths, so they run without OpenCV
+		boolean opencv = SystemConfiguration.OPENCV_ENABLED;
+		SystemConfiguration.OPENCV_ENABLED = false;
+		
+		//a page turned either way onto its side, or upside down, has to come back with the turn
+		//which undoes it (the warp turns clockwise, so the estimate is the opposite turn); a photo
+		//with too little text to tell may be left turned, but never turned the wrong way
+		BufferedImage[] pages = {
+				CornerDetector.resizeArea(ParallelRaster.threeByte(ImageDecoder.decodeSubsampled("tests/ocr/sample_page.tiff", 400)), 400),
+				textPage(480, 640, 14, 1.15),
+				CornerDetector.resizeArea(ParallelRaster.threeByte(ImageDecoder.decodeSubsampled("tests/images/DSC_7380.JPG", 400)), 400)};
+		boolean upright = true;
+		for(int p=0;p<pages.length;p++){
+			Corners whole = new Corners(new Point(0,0), new Point(pages[p].getWidth(),0), new Point(0,pages[p].getHeight()), new Point(pages[p].getWidth(),pages[p].getHeight()));
+			for(int turn: new int[]{0, 90, 180, -90}){
+				BufferedImage turned = HomographyWarp.warp(pages[p], whole, whole, false, false, turn);
+				double rotation = (Double)estimateConfigurationValues(turned).getKey(ConfigurationValue.ValueType.Rotation).value();
+				long estimated = Math.round(rotation/90)*90;
+				long expected = (turn == 180)? 180 : -turn;
+				if (estimated != expected && (p < 2 || estimated != 0)){
+					System.out.println("Page " + p + " turned " + turn + " degrees was estimated at " + rotation + ", not " + expected + ".");
+					upright = false;
+				}
+			}
+		}
+		if (upright){
+			System.out.println("Orientation tests passed!");
+		}
+		
+		//a page found in the photo has its corners near where they are by hand; the corners of
+		//a magazine cover's pictures aren't a page, so that photo keeps the whole frame
+		Corners found = findCorners("tests/images/DSC_7384.JPG", loadImage("tests/images/DSC_7384.JPG", CORNER_DECODE_SIDE));
+		Point[] byHand = { new Point(631,357), new Point(1416,152), new Point(877,1426), new Point(1690,1198) };
+		Point[] foundPoints = { found.upleft(), found.upright(), found.downleft(), found.downright() };
+		boolean cornersFound = true;
+		for(int i=0;i<4;i++){
+			if (foundPoints[i].distance(byHand[i]) > 2*SNAP_RADIUS){
+				System.out.println("Corner " + i + " of DSC_7384 was found at " + foundPoints[i] + ", not near " + byHand[i] + ".");
+				cornersFound = false;
+			}
+		}
+		Corners frame = findCorners("tests/images/DSC_7380.JPG", loadImage("tests/images/DSC_7380.JPG", CORNER_DECODE_SIDE));
+		if (!frame.upleft().equals(new Point(0,0)) || !frame.downright().equals(new Point(3872,2592))){
+			System.out.println("DSC_7380 should keep the whole frame, but got " + frame + ".");
+			cornersFound = false;
+		}
+		if (cornersFound){
+			System.out.println("Corner tests passed!");
+		}
+		
+		//the global transforms: a flip mirrors the page exactly, and a flipped, warmed, boosted and
+		//binarized page keeps its size and comes out in nothing but black and white
+		BufferedImage photo = loadImage("tests/images/DSC_7384.JPG", CORNER_DECODE_SIDE);
+		ConfigurationDictionary flip = new ConfigurationDictionary();
+		flip.setKey(new ConfigurationValue(ConfigurationValue.ValueType.FlipHorizontal, true));
+		BufferedImage flipped = imageGlobalTransforms(photo, flip);
+		ConfigurationDictionary all = new ConfigurationDictionary();
+		all.setKey(new ConfigurationValue(ConfigurationValue.ValueType.FlipHorizontal, true));
+		all.setKey(new ConfigurationValue(ConfigurationValue.ValueType.ColorTemperature, 25));
+		all.setKey(new ConfigurationValue(ConfigurationValue.ValueType.ContrastBoost, true));
+		all.setKey(new ConfigurationValue(ConfigurationValue.ValueType.Binarize, true));
+		BufferedImage transformed = imageGlobalTransforms(photo, all);
+		boolean transforms = transformed.getWidth() == photo.getWidth() && transformed.getHeight() == photo.getHeight();
+		for(int y=0;y<photo.getHeight() && transforms;y++){
+			for(int x=0;x<photo.getWidth() && transforms;x++){
+				int bw = transformed.getRGB(x, y)&0xffffff;
+				transforms = flipped.getRGB(x, y) == photo.getRGB(photo.getWidth()-1-x, y) && (bw == 0 || bw == 0xffffff);
+			}
+		}
+		System.out.println(transforms? "Global transform tests passed!" : "Couldn't do global transforms");
+		
+		SystemConfiguration.OPENCV_ENABLED = opencv;
+		
 		try{
 			cvLoadImage("tests/images/IMG_1529.tif");
 		}catch (Exception e){
@@ -774,18 +790,6 @@ public class VisionManager {
 		
 		IplImage timage = cvLoadImage("tests/images/IMG_1529.tif");
 		
-		try{
-			applyFlipCorrection(timage, new ConfigurationValue(ConfigurationValue.ValueType.Binarize, true));
-			applyTemperatureCorrection(timage, new ConfigurationValue(ConfigurationValue.ValueType.ColorTemperature, 25));
-			applyContrastBoost(timage, new ConfigurationValue(ConfigurationValue.ValueType.ContrastBoost, true));
-			applyBinarization(timage, new ConfigurationValue(ConfigurationValue.ValueType.Binarize, true));
-			System.out.println("Global transform tests passed!");
-		}catch(Exception e){
-			System.out.println("Couldn't do global transforms");
-		}
-		
-		timage = cvLoadImage("tests/images/IMG_1529.tif");
-		
 		try{
 			findCorners(IplImageToBufferedImage(timage));
 			System.out.println("Found corners!");
@@ -806,7 +810,8 @@ public class VisionManager {
 		System.out.println("Loaded");
         if (image != null) {
         	
-        	IplImage mini = resizeMaxSide(image, 200);
+        	NativeArena arena = NativeArena.open();
+        	IplImage mini = resizeMaxSide(arena, image, 200);
         	final ByteBuffer minibuf = mini.getByteBuffer();
         	
         	if (false){
@@ -823,10 +828,10 @@ public class VisionManager {
         		int height = mini.height();
         		
         		
-        		IplImage gray = optimalGrayImage(mini, 1);
-        		IplImage gray_original = cvCloneImage(gray);
+        		IplImage gray = optimalGrayImage(arena, mini, 1);
+        		IplImage gray_original = arena.cloneImage(gray);
         		
-        		ArrayList<MergeZone> merged = findPotentialZones(gray);
+        		ArrayList<MergeZone> merged = findPotentialZones(arena, gray);
         		
         		ArrayList<PotentialCorners> potentialSet = new ArrayList<PotentialCorners>();
         		
@@ -894,13 +899,8 @@ public class VisionManager {
         	}else if (false){
         		Corners corners = new Corners(new Point(961, 531), new Point(2338, 182), new Point(1411, 2393), new Point(2874, 1986));        	
             	outputToFile(IplImageToBufferedImage(image), "output.png", corners, estimateConfigurationValues(IplImageToBufferedImage(image)));
-        	}else if (true){
-        		
-        		//applyTemperatureCorrection(image, new ConfigurationValue(ConfigurationValue.ValueType.ColorTemperature, -50));
-        		applyBinarization(image, new ConfigurationValue(ConfigurationValue.ValueType.Binarize, true));
-        		
-        		cvSaveImage("result.png", image);
         	}
+        	arena.close();
 
         	
         }else{
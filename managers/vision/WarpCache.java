@@ -0,0 +1,55 @@
+package vision;
+
+import java.awt.image.BufferedImage;
+import java.lang.ref.SoftReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import core.Corners;
+
+/*
+ * The last perspective warp of each raw image, so that re-rendering a page after a change to
+ * its colors, filters or threshold only redoes those and not the warp. The warp depends on
+ * nothing but the raw image, the corners, the flips and the rotation, which together make the
+ * key.
+ *
+ * Raw images are held weakly (the entry goes when the caller drops the image) and warps softly
+ * (the collector takes them back before running out of memory), so the cache never keeps a page
+ * alive on its own. Warped images are shared; callers must not modify them.
+ */
+public class WarpCache {
+
+	private static final Map<BufferedImage, Entry> entries = new WeakHashMap<BufferedImage, Entry>();
+
+	private static class Entry {
+		final String key;
+		final SoftReference<BufferedImage> warped;
+
+		Entry(String key, BufferedImage warped){
+			this.key = key;
+			this.warped = new SoftReference<BufferedImage>(warped);
+		}
+	}
+
+	/*
+	 * img warped as HomographyWarp.warp(img, corners, reprojected, flipHorizontal, flipVertical,
+	 * rotation) would, reusing the last warp of img if it was made with the same arguments.
+	 */
+	public static BufferedImage warp(BufferedImage img, Corners corners, Corners reprojected, boolean flipHorizontal, boolean flipVertical, double rotation){
+		String key = corners.toString() + "|" + reprojected.toString() + "|" + flipHorizontal + "|" + flipVertical + "|" + rotation;
+
+		synchronized(entries){
+			Entry entry = entries.get(img);
+			if (entry != null && entry.key.equals(key)){
+				BufferedImage warped = entry.warped.get();
+				if (warped != null){return warped;}
+			}
+		}
+
+		BufferedImage warped = HomographyWarp.warp(img, corners, reprojected, flipHorizontal, flipVertical, rotation);
+		synchronized(entries){
+			entries.put(img, new Entry(key, warped));
+		}
+		return warped;
+	}
+}
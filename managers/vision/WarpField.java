@@ -0,0 +1,208 @@
+package vision;
+
+/*
+ * The "warpage" potential field used by corner finding. Every pixel receives the
+ * sum over all corner responses v(p) of v(p)/|x-p|, i.e. the corner response image
+ * convolved with a 1/r kernel.
+ *
+ * The direct accumulation is quadratic in the number of pixels; the default engine
+ * does the same linear convolution with zero-padded FFTs instead.
+ */
+public class WarpField {
+
+	/*
+	 * Responses smaller than this (in absolute value) don't contribute to the field.
+	 */
+	private static final float RESPONSE_EPSILON = 1e-4f;
+
+	/*
+	 * The spectrum of the 1/r kernel only depends on the image size, and pages from
+	 * the same camera come in at the same size, so keep the last one around.
+	 */
+	private static int cachedWidth = -1;
+	private static int cachedHeight = -1;
+	private static double[] cachedKernelRe;
+	private static double[] cachedKernelIm;
+
+	/*
+	 * Compute the field for a row-major response image. With exact set, falls back to the
+	 * direct accumulation (useful for comparing against the FFT engine).
+	 */
+	public static float[] compute(float[] response, int width, int height, boolean exact){
+		if (exact){
+			return computeExact(response, width, height);
+		}
+		return computeConvolution(response, width, height);
+	}
+
+	/*
+	 * The original O(W^2*H^2) accumulation.
+	 */
+	public static float[] computeExact(float[] response, int width, int height){
+		double[] warp = new double[width*height];
+
+		float _v;
+		for(int y=0;y<height;y++){
+			for(int x=0;x<width;x++){
+				_v = response[width*y + x];
+
+				if ( Math.abs(_v) < RESPONSE_EPSILON ){continue;}
+
+				for(int wy=0;wy<height;wy++){
+					for(int wx=0;wx<width;wx++){
+						if (x==wx && y==wy){continue;}
+						warp[wy*width+wx] += _v/Math.sqrt((wx-x)*(wx-x) + (wy-y)*(wy-y));
+					}
+				}
+			}
+		}
+
+		float[] out = new float[width*height];
+		for(int i=0;i<out.length;i++){
+			out[i] = (float)warp[i];
+		}
+		return out;
+	}
+
+	/*
+	 * Linear convolution with the 1/r kernel through a padded 2D FFT.
+	 */
+	public static float[] computeConvolution(float[] response, int width, int height){
+		int n = nextPowerOfTwo(2*width - 1);
+		int m = nextPowerOfTwo(2*height - 1);
+
+		double[] re = new double[n*m];
+		double[] im = new double[n*m];
+		for(int y=0;y<height;y++){
+			for(int x=0;x<width;x++){
+				float _v = response[y*width + x];
+				if ( Math.abs(_v) >= RESPONSE_EPSILON ){
+					re[y*n + x] = _v;
+				}
+			}
+		}
+		fft2d(re, im, n, m, false);
+
+		double[][] kernel = kernelSpectrum(width, height, n, m);
+		double[] kre = kernel[0];
+		double[] kim = kernel[1];
+
+		double a, b;
+		for(int i=0;i<re.length;i++){
+			a = re[i]*kre[i] - im[i]*kim[i];
+			b = re[i]*kim[i] + im[i]*kre[i];
+			re[i] = a;
+			im[i] = b;
+		}
+		fft2d(re, im, n, m, true);
+
+		float[] out = new float[width*height];
+		for(int y=0;y<height;y++){
+			for(int x=0;x<width;x++){
+				out[y*width + x] = (float)re[y*n + x];
+			}
+		}
+		return out;
+	}
+
+	/*
+	 * The spectrum of the (wrapped) 1/r kernel covering every offset in a width x height image.
+	 */
+	private static synchronized double[][] kernelSpectrum(int width, int height, int n, int m){
+		if (width != cachedWidth || height != cachedHeight){
+			double[] re = new double[n*m];
+			double[] im = new double[n*m];
+
+			for(int dy=-(height-1);dy<height;dy++){
+				int row = ((dy+m)%m)*n;
+				for(int dx=-(width-1);dx<width;dx++){
+					if (dx==0 && dy==0){continue;}
+					re[row + (dx+n)%n] = 1.0/Math.sqrt(dx*dx + dy*dy);
+				}
+			}
+			fft2d(re, im, n, m, false);
+
+			cachedKernelRe = re;
+			cachedKernelIm = im;
+			cachedWidth = width;
+			cachedHeight = height;
+		}
+		return new double[][]{cachedKernelRe, cachedKernelIm};
+	}
+
+	/*
+	 * In-place 2D FFT of an n x m (row-major, power of two sides) complex array.
+	 * The inverse transform is scaled by 1/(n*m).
+	 */
+	private static void fft2d(double[] re, double[] im, int n, int m, boolean inverse){
+		for(int y=0;y<m;y++){
+			fft(re, im, y*n, 1, n, inverse);
+		}
+		for(int x=0;x<n;x++){
+			fft(re, im, x, n, m, inverse);
+		}
+
+		if (inverse){
+			double scale = 1.0/(n*m);
+			for(int i=0;i<re.length;i++){
+				re[i] *= scale;
+				im[i] *= scale;
+			}
+		}
+	}
+
+	/*
+	 * Iterative radix-2 FFT over count elements starting at offset, spaced stride apart.
+	 */
+	private static void fft(double[] re, double[] im, int offset, int stride, int count, boolean inverse){
+		//bit reversal permutation
+		for(int i=1, j=0;i<count;i++){
+			int bit = count >> 1;
+			for(;(j & bit) != 0;bit >>= 1){
+				j ^= bit;
+			}
+			j ^= bit;
+
+			if (i < j){
+				int a = offset + i*stride;
+				int b = offset + j*stride;
+				double t = re[a]; re[a] = re[b]; re[b] = t;
+				t = im[a]; im[a] = im[b]; im[b] = t;
+			}
+		}
+
+		for(int len=2;len<=count;len<<=1){
+			double angle = 2*Math.PI/len * (inverse? 1:-1);
+			double wre = Math.cos(angle);
+			double wim = Math.sin(angle);
+
+			for(int i=0;i<count;i+=len){
+				double cre = 1;
+				double cim = 0;
+				for(int k=0;k<len/2;k++){
+					int a = offset + (i+k)*stride;
+					int b = offset + (i+k+len/2)*stride;
+
+					double bre = re[b]*cre - im[b]*cim;
+					double bim = re[b]*cim + im[b]*cre;
+					re[b] = re[a] - bre;
+					im[b] = im[a] - bim;
+					re[a] += bre;
+					im[a] += bim;
+
+					double t = cre*wre - cim*wim;
+					cim = cre*wim + cim*wre;
+					cre = t;
+				}
+			}
+		}
+	}
+
+	private static int nextPowerOfTwo(int v){
+		int p = 1;
+		while(p < v){
+			p <<= 1;
+		}
+		return p;
+	}
+}
@@ -1,2 +1,4 @@
+java -classpath bin/:libraries/jar/:libraries/jar/javacpp.jar:libraries/jar/javacv.jar:libraries/jar/javacv-macosx-x86_64.jar:libraries/jar/dom4j-1.6.1.jar \
+	 vision/KernelTests
 java -classpath bin/:libraries/jar/:libraries/jar/javacpp.jar:libraries/jar/javacv.jar:libraries/jar/javacv-macosx-x86_64.jar:libraries/jar/dom4j-1.6.1.jar \
 	 vision/VisionManager
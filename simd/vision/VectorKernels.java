@@ -0,0 +1,74 @@
+package vision;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/*
+ * SimdKernels with the JDK Vector API, at the widest vectors the CPU has (AVX2/AVX-512 on the
+ * render nodes). Build and run with --add-modules jdk.incubator.vector; see the README.
+ */
+public class VectorKernels implements SimdKernels {
+
+	private static final VectorSpecies<Byte> BYTES = ByteVector.SPECIES_PREFERRED;
+	private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+
+	/*
+	 * Saturating add of a per-lane shift. Bytes are unsigned but the lanes are signed, so the
+	 * values are biased by 128 (xor 0x80), clamped to where adding the shift can't overflow,
+	 * shifted, and unbiased again. A vector holds a whole number of bytes but not of pixels, so
+	 * there are three lane patterns, one per channel the vector can start on.
+	 */
+	public void shiftChannels(byte[] data, int offset, int length, int shift0, int shift1, int shift2){
+		int lanes = BYTES.length();
+		int[] shifts = {shift0, shift1, shift2};
+
+		//a shift that doesn't fit in a lane is done entirely in the scalar tail
+		boolean fits = true;
+		for(int s: shifts){
+			fits &= (s >= -128 && s <= 127);
+		}
+
+		ByteVector[] add = new ByteVector[3];
+		ByteVector[] upper = new ByteVector[3];
+		ByteVector[] lower = new ByteVector[3];
+		byte[] a = new byte[lanes];
+		byte[] u = new byte[lanes];
+		byte[] l = new byte[lanes];
+		for(int phase=0;phase<3;phase++){
+			for(int i=0;i<lanes;i++){
+				a[i] = (byte)shifts[(phase+i)%3];
+				u[i] = (byte)(127 - Math.max(0, a[i]));
+				l[i] = (byte)(-128 - Math.min(0, a[i]));
+			}
+			add[phase] = ByteVector.fromArray(BYTES, a, 0);
+			upper[phase] = ByteVector.fromArray(BYTES, u, 0);
+			lower[phase] = ByteVector.fromArray(BYTES, l, 0);
+		}
+
+		int phase = 0;
+		int i = 0;
+		for(;fits && i+lanes<=length;i+=lanes){
+			ByteVector v = ByteVector.fromArray(BYTES, data, offset+i).lanewise(VectorOperators.XOR, (byte)0x80);
+			v = v.min(upper[phase]).max(lower[phase]).add(add[phase]).lanewise(VectorOperators.XOR, (byte)0x80);
+			v.intoArray(data, offset+i);
+			phase = (phase + lanes) % 3;
+		}
+		for(;i<length;i++){
+			int v = (data[offset+i]&0xff) + shifts[i%3];
+			data[offset+i] = (byte)Math.max(0, Math.min(255, v));
+		}
+	}
+
+	public void addRows(double[] above, int aboveOffset, double[] row, double[] out, int outOffset, int n){
+		int lanes = DOUBLES.length();
+		int i = 0;
+		for(;i+lanes<=n;i+=lanes){
+			DoubleVector.fromArray(DOUBLES, above, aboveOffset+i).add(DoubleVector.fromArray(DOUBLES, row, i)).intoArray(out, outOffset+i);
+		}
+		for(;i<n;i++){
+			out[outOffset+i] = above[aboveOffset+i] + row[i];
+		}
+	}
+}